@@ -0,0 +1,720 @@
+package application;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * MilkStore that keeps every reading in parallel primitive columns of epoch day
+ * and weight, sorted by farm handle and then day. The farm column is run length
+ * encoded: the readings of a farm are one contiguous run located through a farm
+ * offset array, so the report kernels binary search the first day of a range and
+ * sum the weight column in a tight loop without touching any per farm objects.
+ * <p>
+ * The farms are split into segments by handle % SEGMENTS, each with columns of
+ * its own. Readings for new farm and day pairs are appended to the segment's
+ * pending buffer, which is merged into new sorted columns of that segment once it
+ * grows past a quarter of them, so an ingest pays for a few sorts instead of one
+ * insertion per row and never holds more than one segment twice. Reads look up a
+ * small pending buffer in an overlay sorted by farm and day, a large one is
+ * merged by the next read or snapshot. Edits of existing readings are done in
+ * place while nothing is pending, removals leave a MISSING tombstone that is
+ * dropped when the columns are compacted. Columns are IntBuffers from allocate,
+ * so a subclass can move them out of the heap.
+ * <p>
+ * Compaction always writes new columns, and the pending buffer is only appended
+ * to, so a snapshot shares the current columns and the pending readings written
+ * so far with the store. While a snapshot holds them, edits and removals go to
+ * the pending buffer instead of the columns, and the next compaction gives the
+ * segment columns and a pending buffer of its own again. A snapshot carries at
+ * most MAX_PENDING readings per segment, so reading it never compacts it
+ */
+public class ColumnarStore implements MilkStore {
+	private static final int INITIAL_CAPACITY = 1024;
+	// pending readings a snapshot may carry before the store merges them into new columns
+	private static final int MAX_PENDING = 4096;
+	// segments the farms are split into, each one is compacted on its own
+	private static final int SEGMENTS = 16;
+	// added to epoch days so every day of years 0 to 9999 sorts as a positive number
+	private static final int DAY_OFFSET = 1 << 22;
+
+	private FarmDictionary dictionary;
+	private Segment[] segments; // farm handle % SEGMENTS, farms are numbered handle / SEGMENTS within their segment
+
+	/**
+	 * constructor for an empty store
+	 */
+	public ColumnarStore() {
+		dictionary = new FarmDictionary();
+		segments = new Segment[SEGMENTS];
+		for (int s = 0; s < SEGMENTS; s++)
+			segments[s] = new Segment();
+	}
+
+	/**
+	 * constructor for a snapshot that shares the columns and the pending readings
+	 * of a store without allocating any of its own
+	 * @param store store to take the snapshot of
+	 */
+	private ColumnarStore(ColumnarStore store) {
+		dictionary = store.dictionary.snapshot();
+		segments = new Segment[SEGMENTS];
+		for (int s = 0; s < SEGMENTS; s++)
+			segments[s] = new Segment(store.segments[s]);
+	}
+
+	@Override
+	public int farmCount() {
+		return dictionary.size();
+	}
+
+	@Override
+	public int handleOf(String farmID) {
+		return dictionary.handleOf(farmID);
+	}
+
+	@Override
+	public String idOf(int farm) {
+		return dictionary.idOf(farm);
+	}
+
+	@Override
+	public int addFarm(String farmID) {
+		int farm = dictionary.add(farmID);
+		segments[farm % SEGMENTS].addFarm();
+		return farm;
+	}
+
+	@Override
+	public void addMilk(int farm, int date, int milkWeight) {
+		if (milkWeight == MISSING)
+			throw new IllegalArgumentException();
+		segments[farm % SEGMENTS].addMilk(farm / SEGMENTS, MilkDate.toEpochDay(date), milkWeight);
+	}
+
+	@Override
+	public void removeMilk(int farm, int date) throws MissingDataException {
+		segments[farm % SEGMENTS].removeMilk(farm / SEGMENTS, MilkDate.toEpochDay(date));
+	}
+
+	/**
+	 * puts the whole group into the pending buffer, so it costs one compaction
+	 * instead of one lookup or compaction per removal. The readings to remove are
+	 * not checked
+	 */
+	@Override
+	public void setReadings(int farm, int[] dates, int[] milkWeights, int count) {
+		Segment segment = segments[farm % SEGMENTS];
+		for (int i = 0; i < count; i++)
+			segment.pend(farm / SEGMENTS, MilkDate.toEpochDay(dates[i]), milkWeights[i]);
+	}
+
+	@Override
+	public int getMilkWeight(int farm, int date) {
+		return segments[farm % SEGMENTS].getMilkWeight(farm / SEGMENTS, MilkDate.toEpochDay(date));
+	}
+
+	@Override
+	public int getMonthlyMilkWeight(int farm, int year, int month) {
+		return segments[farm % SEGMENTS].sum(farm / SEGMENTS, MilkDate.toEpochDay(MilkDate.toKey(year, month, 1)),
+				MilkDate.toEpochDay(MilkDate.toKey(year, month, MilkDate.daysInMonth(year, month))));
+	}
+
+	@Override
+	public int getReadingCount(int farm, int year, int month) {
+		return segments[farm % SEGMENTS].readingCount(farm / SEGMENTS,
+				MilkDate.toEpochDay(MilkDate.toKey(year, month, 1)),
+				MilkDate.toEpochDay(MilkDate.toKey(year, month, MilkDate.daysInMonth(year, month))));
+	}
+
+	@Override
+	public int getMilkWeightInRange(int farm, int startDate, int endDate) {
+		return segments[farm % SEGMENTS].sum(farm / SEGMENTS, MilkDate.toEpochDay(startDate),
+				MilkDate.toEpochDay(endDate));
+	}
+
+	@Override
+	public void forEachReading(int farm, ReadingVisitor visitor) {
+		segments[farm % SEGMENTS].forEachReading(farm / SEGMENTS, visitor);
+	}
+
+	@Override
+	public int annualTotals(int year, int[] milkWeights, int from, int to) {
+		return rangeTotals(MilkDate.toKey(year, 1, 1), MilkDate.toKey(year, 12, 31), milkWeights, from, to);
+	}
+
+	@Override
+	public int monthlyTotals(int year, int month, int[] milkWeights, int from, int to) {
+		return rangeTotals(MilkDate.toKey(year, month, 1),
+				MilkDate.toKey(year, month, MilkDate.daysInMonth(year, month)), milkWeights, from, to);
+	}
+
+	@Override
+	public int rangeTotals(int startDate, int endDate, int[] milkWeights, int from, int to) {
+		int first = MilkDate.toEpochDay(startDate);
+		int last = MilkDate.toEpochDay(endDate);
+		int totalMilkWeight = 0;
+		for (int farm = from; farm < to; farm++) {
+			milkWeights[farm] = segments[farm % SEGMENTS].sum(farm / SEGMENTS, first, last);
+			totalMilkWeight += milkWeights[farm];
+		}
+		return totalMilkWeight;
+	}
+
+	/**
+	 * segments share nothing but the dictionary, which only addFarm writes to, so
+	 * every segment can be written to by its own thread
+	 */
+	@Override
+	public int shards() {
+		return SEGMENTS;
+	}
+
+	/**
+	 * allocates an int column, the columnar store keeps its columns on the heap
+	 * @param capacity number of ints the column holds
+	 * @return new column with position 0 and limit capacity
+	 */
+	protected IntBuffer allocate(int capacity) {
+		return IntBuffer.allocate(capacity);
+	}
+
+	/**
+	 * copies the first entries of a column into a larger new column
+	 * @param column column to copy
+	 * @param length number of entries in use
+	 * @param capacity capacity of the new column
+	 * @return the new column
+	 */
+	private IntBuffer copyOf(IntBuffer column, int length, int capacity) {
+		IntBuffer grown = allocate(capacity);
+		IntBuffer used = column.duplicate();
+		used.position(0).limit(length);
+		grown.put(used).clear();
+		return grown;
+	}
+
+	/**
+	 * merges the pending readings into the sorted columns
+	 */
+	@Override
+	public void flush() {
+		for (Segment segment : segments)
+			segment.flush();
+	}
+
+	/**
+	 * shares the columns and the pending readings with the snapshot, only
+	 * compacting segments with more pending readings than a snapshot may carry, so
+	 * a snapshot after a small edit costs a copy of the farm offsets
+	 */
+	@Override
+	public MilkStore snapshot() {
+		for (Segment segment : segments)
+			segment.compactIfLarge();
+		ColumnarStore snapshot = new ColumnarStore(this);
+		for (Segment segment : segments)
+			segment.shared = true;
+		return snapshot;
+	}
+
+	/**
+	 * Columns and pending readings of the farms of one segment, which are numbered
+	 * from 0 within the segment
+	 */
+	private class Segment {
+		private int farmCount;
+
+		// sorted columns, entries 0 to count - 1 are in use
+		private IntBuffer epochDay;
+		private IntBuffer weight;
+		private int count;
+		private int tombstones; // entries of the columns whose weight is MISSING
+		private int[] farmStart; // first column entry of each farm, farmStart[farmCount] is count
+		private boolean shared; // a snapshot holds the columns and pending buffer, so they are not written in place
+
+		// readings not merged into the columns yet, in the order they were written
+		private IntBuffer pendingFarm;
+		private IntBuffer pendingDay;
+		private IntBuffer pendingWeight;
+		private int pendingCount;
+		private volatile Overlay overlay; // pending readings sorted for reads, built by the first read that needs it
+
+		/**
+		 * constructor for an empty segment
+		 */
+		Segment() {
+			epochDay = allocate(0);
+			weight = allocate(0);
+			farmStart = new int[17];
+			pendingFarm = allocate(INITIAL_CAPACITY);
+			pendingDay = allocate(INITIAL_CAPACITY);
+			pendingWeight = allocate(INITIAL_CAPACITY);
+		}
+
+		/**
+		 * constructor for the snapshot of a segment, sharing its columns and pending
+		 * readings
+		 * @param segment segment to take the snapshot of
+		 */
+		Segment(Segment segment) {
+			farmCount = segment.farmCount;
+			epochDay = segment.epochDay;
+			weight = segment.weight;
+			count = segment.count;
+			tombstones = segment.tombstones;
+			farmStart = Arrays.copyOf(segment.farmStart, farmCount + 1);
+			pendingFarm = segment.pendingFarm;
+			pendingDay = segment.pendingDay;
+			pendingWeight = segment.pendingWeight;
+			pendingCount = segment.pendingCount;
+			overlay = segment.overlay;
+		}
+
+		/**
+		 * adds a farm without readings
+		 */
+		void addFarm() {
+			int farm = farmCount++;
+			if (farm + 1 >= farmStart.length)
+				farmStart = Arrays.copyOf(farmStart, farmStart.length * 2);
+			farmStart[farm + 1] = count;
+		}
+
+		/**
+		 * sets the weight of a farm on a day
+		 * @param farm farm within the segment
+		 * @param day epoch day of the reading
+		 * @param milkWeight weight of the reading
+		 */
+		void addMilk(int farm, int day, int milkWeight) {
+			if (writableInPlace()) {
+				int index = find(farm, day);
+				if (index >= 0) {
+					if (weight.get(index) == MISSING)
+						tombstones--;
+					weight.put(index, milkWeight);
+					return;
+				}
+			}
+			pend(farm, day, milkWeight);
+		}
+
+		/**
+		 * checks if an edit can be written to the columns, which needs the columns to
+		 * be held by this store only and no pending reading that could be newer
+		 * @return true if the columns can be written in place
+		 */
+		private boolean writableInPlace() {
+			return !shared && pendingCount == 0;
+		}
+
+		/**
+		 * appends a reading to the pending buffer, a MISSING weight removes the
+		 * reading when the buffer is merged. A buffer that grew past a quarter of the
+		 * columns is merged right away, so an ingest compacts in chunks
+		 * @param farm farm within the segment
+		 * @param day epoch day of the reading
+		 * @param milkWeight weight of the reading
+		 */
+		void pend(int farm, int day, int milkWeight) {
+			if (pendingCount == pendingFarm.capacity()) {
+				if (pendingCount > MAX_PENDING && pendingCount > count / 4)
+					compact();
+
+				else {
+					int capacity = pendingCount * 2;
+					pendingFarm = copyOf(pendingFarm, pendingCount, capacity);
+					pendingDay = copyOf(pendingDay, pendingCount, capacity);
+					pendingWeight = copyOf(pendingWeight, pendingCount, capacity);
+				}
+			}
+			pendingFarm.put(pendingCount, farm);
+			pendingDay.put(pendingCount, day);
+			pendingWeight.put(pendingCount, milkWeight);
+			pendingCount++;
+			overlay = null;
+		}
+
+		/**
+		 * removes the reading of a farm on a day
+		 * @param farm farm within the segment
+		 * @param day epoch day of the reading
+		 * @throws MissingDataException if the farm has no reading on the day
+		 */
+		void removeMilk(int farm, int day) throws MissingDataException {
+			if (getMilkWeight(farm, day) == MISSING)
+				throw new MissingDataException();
+
+			if (!writableInPlace()) {
+				pend(farm, day, MISSING);
+				return;
+			}
+			weight.put(find(farm, day), MISSING);
+			tombstones++;
+			if (tombstones > count / 4)
+				compact();
+		}
+
+		/**
+		 * gets the weight of a farm on a day
+		 * @param farm farm within the segment
+		 * @param day epoch day of the reading
+		 * @return the weight, or MISSING if there is no reading on the day
+		 */
+		int getMilkWeight(int farm, int day) {
+			compactIfLarge();
+
+			// the last pending write of the day wins over the columns
+			for (int i = pendingCount - 1; i >= 0; i--) {
+				if (pendingDay.get(i) == day && pendingFarm.get(i) == farm)
+					return pendingWeight.get(i);
+			}
+			int index = find(farm, day);
+			return index < 0 ? MISSING : weight.get(index);
+		}
+
+		/**
+		 * gets the number of readings of a farm between two days
+		 * @param farm farm within the segment
+		 * @param first first epoch day, inclusive
+		 * @param last last epoch day, inclusive
+		 * @return number of readings
+		 */
+		int readingCount(int farm, int first, int last) {
+			Overlay pending = pending();
+			int readings = 0;
+			for (int i = lowerBound(farm, first); i < farmStart[farm + 1] && epochDay.get(i) <= last; i++) {
+				if (weight.get(i) != MISSING)
+					readings++;
+			}
+			return pending == null ? readings : readings + pending.readingChange(farm, first, last);
+		}
+
+		/**
+		 * gets the total weight of a farm's readings between two days
+		 * @param farm farm within the segment
+		 * @param first first epoch day, inclusive
+		 * @param last last epoch day, inclusive
+		 * @return total weight of the readings
+		 */
+		int sum(int farm, int first, int last) {
+			Overlay pending = pending();
+			int end = farmStart[farm + 1];
+			int total = 0;
+			for (int i = lowerBound(farm, first); i < end && epochDay.get(i) <= last; i++) {
+				if (weight.get(i) != MISSING)
+					total += weight.get(i);
+			}
+			return pending == null ? total : total + pending.weightChange(farm, first, last);
+		}
+
+		/**
+		 * visits every reading of a farm in date order
+		 * @param farm farm within the segment
+		 * @param visitor receives the readings
+		 */
+		void forEachReading(int farm, ReadingVisitor visitor) {
+			Overlay pending = pending();
+			int c = farmStart[farm];
+			int cEnd = farmStart[farm + 1];
+			int p = pending == null ? 0 : pending.start(farm);
+			int pEnd = pending == null ? 0 : pending.end(farm);
+			while (c < cEnd || p < pEnd) {
+				int cDay = c < cEnd ? epochDay.get(c) : Integer.MAX_VALUE;
+				int day;
+				int milkWeight;
+				if (p < pEnd && pending.day[p] <= cDay) {
+					// a pending reading replaces the column entry of its day
+					day = pending.day[p];
+					milkWeight = pending.weight[p++];
+					if (day == cDay)
+						c++;
+				}
+
+				else {
+					day = cDay;
+					milkWeight = weight.get(c++);
+				}
+
+				if (milkWeight != MISSING)
+					visitor.reading(MilkDate.fromEpochDay(day), milkWeight);
+			}
+		}
+
+		/**
+		 * merges the pending readings into the sorted columns
+		 */
+		void flush() {
+			if (pendingCount > 0)
+				compact();
+		}
+
+		/**
+		 * merges the pending readings into the sorted columns once there are more
+		 * than a snapshot may carry. A snapshot never has that many, so it is not
+		 * changed
+		 */
+		void compactIfLarge() {
+			if (pendingCount > MAX_PENDING)
+				compact();
+		}
+
+		/**
+		 * gets the pending readings sorted for reads, building the overlay the first
+		 * time it is needed. Readers of a snapshot may get here at the same time, so
+		 * the overlay is built under the segment's monitor
+		 * @return overlay of the pending readings, or null if nothing is pending
+		 */
+		private Overlay pending() {
+			compactIfLarge();
+			if (pendingCount == 0)
+				return null;
+
+			Overlay current = overlay;
+			if (current == null) {
+				synchronized (this) {
+					current = overlay;
+					if (current == null) {
+						current = new Overlay();
+						overlay = current;
+					}
+				}
+			}
+			return current;
+		}
+
+		/**
+		 * finds the first column entry of a farm on or after a day
+		 * @param farm farm within the segment
+		 * @param day epoch day to search for
+		 * @return index of the entry, or the end of the farm's run if there is none
+		 */
+		private int lowerBound(int farm, int day) {
+			int low = farmStart[farm];
+			int high = farmStart[farm + 1];
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (epochDay.get(middle) < day)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+
+		/**
+		 * finds the column entry of a farm on a day, tombstones included
+		 * @param farm farm within the segment
+		 * @param day epoch day to find
+		 * @return index of the entry, or -1 if the columns have no entry for the day
+		 */
+		private int find(int farm, int day) {
+			int index = lowerBound(farm, day);
+			return index < farmStart[farm + 1] && epochDay.get(index) == day ? index : -1;
+		}
+
+		/**
+		 * sorts the pending readings by farm with a counting sort, which keeps their
+		 * write order, and then every farm's readings by day and write order. The
+		 * order is kept in a column from allocate, only the readings of one farm are
+		 * sorted in an array at a time
+		 * @param bucketStart receives the first sorted reading of every farm,
+		 *                    farmCount + 1 entries
+		 * @return pending index of every pending reading in sorted order
+		 */
+		private IntBuffer sortPending(int[] bucketStart) {
+			for (int i = 0; i < pendingCount; i++)
+				bucketStart[pendingFarm.get(i) + 1]++;
+			for (int farm = 0; farm < farmCount; farm++)
+				bucketStart[farm + 1] += bucketStart[farm];
+			IntBuffer order = allocate(pendingCount);
+			int[] next = Arrays.copyOf(bucketStart, farmCount);
+			for (int i = 0; i < pendingCount; i++)
+				order.put(next[pendingFarm.get(i)]++, i);
+
+			long[] run = new long[16]; // (day + DAY_OFFSET) << 32 | pending index of one farm's readings
+			for (int farm = 0; farm < farmCount; farm++) {
+				int from = bucketStart[farm];
+				int length = bucketStart[farm + 1] - from;
+				if (length < 2)
+					continue;
+				if (length > run.length)
+					run = new long[Math.max(run.length * 2, length)];
+				for (int j = 0; j < length; j++) {
+					int i = order.get(from + j);
+					run[j] = (long) (pendingDay.get(i) + DAY_OFFSET) << 32 | i;
+				}
+				Arrays.sort(run, 0, length);
+				for (int j = 0; j < length; j++)
+					order.put(from + j, (int) run[j]);
+			}
+			return order;
+		}
+
+		/**
+		 * rebuilds the sorted columns from the current columns and the pending
+		 * readings, dropping tombstones. The last pending write of a day wins, and
+		 * each farm's pending readings are merged with the farm's run
+		 */
+		private void compact() {
+			int[] bucketStart = new int[farmCount + 1];
+			IntBuffer order = sortPending(bucketStart);
+
+			int capacity = count - tombstones + pendingCount;
+			IntBuffer newDay = allocate(capacity);
+			IntBuffer newWeight = allocate(capacity);
+			int[] newStart = new int[farmStart.length];
+			int n = 0;
+			for (int farm = 0; farm < farmCount; farm++) {
+				newStart[farm] = n;
+				int p = bucketStart[farm];
+				int pEnd = bucketStart[farm + 1];
+				int c = farmStart[farm];
+				int cEnd = farmStart[farm + 1];
+				while (c < cEnd || p < pEnd) {
+					int pDay = p < pEnd ? pendingDay.get(order.get(p)) : Integer.MAX_VALUE;
+					int day;
+					int milkWeight;
+					if (c < cEnd && epochDay.get(c) < pDay) {
+						day = epochDay.get(c);
+						milkWeight = weight.get(c++);
+					}
+
+					else {
+						// the last pending write of the day replaces the column entry
+						while (p + 1 < pEnd && pendingDay.get(order.get(p + 1)) == pDay)
+							p++;
+						if (c < cEnd && epochDay.get(c) == pDay)
+							c++;
+						day = pDay;
+						milkWeight = pendingWeight.get(order.get(p++));
+					}
+
+					if (milkWeight == MISSING)
+						continue;
+					newDay.put(n, day);
+					newWeight.put(n, milkWeight);
+					n++;
+				}
+			}
+			newStart[farmCount] = n;
+
+			// a snapshot may still read the pending buffer, so it is not written again,
+			// and a buffer that an ingest grew is not kept after it
+			if (shared || pendingFarm.capacity() > MAX_PENDING) {
+				pendingFarm = allocate(INITIAL_CAPACITY);
+				pendingDay = allocate(INITIAL_CAPACITY);
+				pendingWeight = allocate(INITIAL_CAPACITY);
+			}
+
+			epochDay = newDay;
+			weight = newWeight;
+			farmStart = newStart;
+			count = n;
+			tombstones = 0;
+			pendingCount = 0;
+			overlay = null;
+			shared = false;
+		}
+
+		/**
+		 * Pending readings sorted by farm and day, the last write of every day only,
+		 * next to the column weight each one replaces. Reads add the overlay's change
+		 * to what they find in the columns. It is built once for a set of pending
+		 * readings and never changed, so readers can share it
+		 */
+		private class Overlay {
+			private int farmCount;
+			private int[] start; // first entry of each farm, start[farmCount] is the number of entries
+			private int[] day;
+			private int[] weight; // new weight, MISSING for a removal
+			private int[] replaced; // weight in the columns, MISSING if the columns have none
+
+			Overlay() {
+				farmCount = Segment.this.farmCount;
+				start = new int[farmCount + 1];
+				int[] bucketStart = new int[farmCount + 1];
+				IntBuffer order = sortPending(bucketStart);
+				day = new int[pendingCount];
+				weight = new int[pendingCount];
+				replaced = new int[pendingCount];
+
+				int n = 0;
+				for (int farm = 0; farm < farmCount; farm++) {
+					start[farm] = n;
+					for (int p = bucketStart[farm]; p < bucketStart[farm + 1]; p++) {
+						int pDay = pendingDay.get(order.get(p));
+						if (p + 1 < bucketStart[farm + 1] && pendingDay.get(order.get(p + 1)) == pDay)
+							continue;
+						int index = find(farm, pDay);
+						day[n] = pDay;
+						weight[n] = pendingWeight.get(order.get(p));
+						replaced[n] = index < 0 ? MISSING : Segment.this.weight.get(index);
+						n++;
+					}
+				}
+				start[farmCount] = n;
+			}
+
+			/**
+			 * gets the first entry of a farm
+			 * @param farm farm within the segment
+			 * @return index of the farm's first entry
+			 */
+			int start(int farm) {
+				return farm < farmCount ? start[farm] : 0;
+			}
+
+			/**
+			 * gets the entry after the last one of a farm
+			 * @param farm farm within the segment
+			 * @return index after the farm's last entry
+			 */
+			int end(int farm) {
+				return farm < farmCount ? start[farm + 1] : 0;
+			}
+
+			/**
+			 * gets how much the pending readings change a farm's total weight between
+			 * two days
+			 * @param farm farm within the segment
+			 * @param first first epoch day, inclusive
+			 * @param last last epoch day, inclusive
+			 * @return change of the total weight
+			 */
+			int weightChange(int farm, int first, int last) {
+				int change = 0;
+				for (int i = start(farm); i < end(farm); i++) {
+					if (day[i] < first || day[i] > last)
+						continue;
+					if (weight[i] != MISSING)
+						change += weight[i];
+					if (replaced[i] != MISSING)
+						change -= replaced[i];
+				}
+				return change;
+			}
+
+			/**
+			 * gets how much the pending readings change a farm's number of readings
+			 * between two days
+			 * @param farm farm within the segment
+			 * @param first first epoch day, inclusive
+			 * @param last last epoch day, inclusive
+			 * @return change of the number of readings
+			 */
+			int readingChange(int farm, int first, int last) {
+				int change = 0;
+				for (int i = start(farm); i < end(farm); i++) {
+					if (day[i] < first || day[i] > last)
+						continue;
+					if (weight[i] != MISSING)
+						change++;
+					if (replaced[i] != MISSING)
+						change--;
+				}
+				return change;
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package application;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One fix of a correction set: a new weight for a farm on a date, or the
+ * removal of the farm's reading on that date. A correction set is applied with
+ * MilkManager.applyCorrections
+ */
+public class Correction {
+	private String farmID;
+	private MilkDate date;
+	private int milkWeight; // MISSING for a removal
+
+	/**
+	 * constructor for a correction that sets a weight, adding the reading if the
+	 * farm has none on the date
+	 * @param farmID farm to correct
+	 * @param date date of the reading
+	 * @param milkWeight new weight of the reading
+	 */
+	public Correction(String farmID, MilkDate date, int milkWeight) {
+		this.farmID = farmID;
+		this.date = date;
+		this.milkWeight = milkWeight;
+	}
+
+	/**
+	 * constructor for a correction that removes a reading
+	 * @param farmID farm to correct
+	 * @param date date of the reading to remove
+	 */
+	public Correction(String farmID, MilkDate date) {
+		this(farmID, date, MilkStore.MISSING);
+	}
+
+	/**
+	 * gets the farm to correct
+	 * @return ID of the farm
+	 */
+	public String getFarmID() {
+		return farmID;
+	}
+
+	/**
+	 * gets the date of the corrected reading
+	 * @return date of the reading
+	 */
+	public MilkDate getDate() {
+		return date;
+	}
+
+	/**
+	 * gets the new weight
+	 * @return new weight of the reading, MISSING for a removal
+	 */
+	public int getMilkWeight() {
+		return milkWeight;
+	}
+
+	/**
+	 * checks if the correction removes the reading
+	 * @return true for a removal
+	 */
+	public boolean isRemoval() {
+		return milkWeight == MilkStore.MISSING;
+	}
+
+	/**
+	 * reads a correction set from a CSV file with the date,farm_id,weight columns
+	 * of a milk weight file. A row with an empty weight removes the reading, a
+	 * header row is skipped
+	 * @param file CSV file of corrections
+	 * @return the corrections in file order
+	 * @throws IOException if reading the file has an error
+	 * @throws ParseException if a row is not a valid correction, with the row's
+	 *                        line number as its offset
+	 */
+	public static List<Correction> readAll(File file) throws IOException, ParseException {
+		List<Correction> corrections = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.trim().isEmpty() || (lineNumber == 1 && line.startsWith("date")))
+					continue;
+
+				String[] fields = line.split(",", -1);
+				try {
+					if (fields.length != 3 || fields[1].trim().isEmpty())
+						throw new ParseException(line, lineNumber);
+					MilkDate date = new MilkDate(fields[0].trim());
+					String farmID = fields[1].trim();
+					if (fields[2].trim().isEmpty())
+						corrections.add(new Correction(farmID, date));
+					else
+						corrections.add(new Correction(farmID, date, Integer.parseInt(fields[2].trim())));
+				} catch (InvalidDateException | NumberFormatException e) {
+					throw new ParseException(line, lineNumber);
+				}
+			}
+		}
+		return corrections;
+	}
+}
@@ -0,0 +1,131 @@
+package application;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a directory of CSV files and reports the files that were created or
+ * appended to, so they can be passed to MilkManager.tail. Events that arrive
+ * close together are reported as one sorted list of files, and every CSV file
+ * already in the directory is reported once when watching starts. The files are
+ * reported on the watcher's own daemon thread
+ */
+public class DirectoryWatcher implements Closeable {
+	private static final long SETTLE_TIME = 100; // milliseconds to wait for more events before reporting
+
+	private Path directory;
+	private WatchService watchService;
+	private Consumer<List<File>> changed;
+
+	/**
+	 * starts watching a directory
+	 * @param directory directory holding the CSV files
+	 * @param changed receives the CSV files that were created or appended to
+	 * @throws IOException if the directory cannot be watched
+	 */
+	public DirectoryWatcher(File directory, Consumer<List<File>> changed) throws IOException {
+		this.directory = directory.toPath();
+		this.changed = changed;
+		watchService = this.directory.getFileSystem().newWatchService();
+		this.directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+
+		Thread thread = new Thread(this::run, "directory watcher " + directory);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * reports the existing files, then every batch of changed files until the
+	 * watcher is closed
+	 */
+	private void run() {
+		try {
+			report(listCsvFiles());
+			while (true) {
+				TreeSet<Path> files = new TreeSet<>();
+				WatchKey key = watchService.take();
+				while (key != null) {
+					collect(key, files);
+					key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS);
+				}
+				report(files);
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * adds the CSV files named by the events of a watch key to a set
+	 * @param key key with pending events
+	 * @param files set to add the files to
+	 */
+	private void collect(WatchKey key, TreeSet<Path> files) {
+		for (WatchEvent<?> event : key.pollEvents()) {
+			// events were lost, so every file may have changed
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+				files.addAll(listCsvFiles());
+
+			else {
+				Path file = directory.resolve((Path) event.context());
+				if (isCsvFile(file))
+					files.add(file);
+			}
+		}
+		key.reset();
+	}
+
+	private void report(TreeSet<Path> files) {
+		if (files.isEmpty())
+			return;
+		List<File> list = new ArrayList<>();
+		for (Path file : files)
+			list.add(file.toFile());
+		changed.accept(list);
+	}
+
+	/**
+	 * lists the CSV files in the directory
+	 * @return the CSV files, empty if the directory cannot be read
+	 */
+	private TreeSet<Path> listCsvFiles() {
+		TreeSet<Path> files = new TreeSet<>();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+			for (Path file : entries) {
+				if (isCsvFile(file))
+					files.add(file);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return files;
+	}
+
+	private static boolean isCsvFile(Path file) {
+		return file.getFileName().toString().toLowerCase().endsWith(".csv") && Files.isRegularFile(file);
+	}
+
+	/**
+	 * stops watching the directory
+	 * @throws IOException if closing the watch service fails
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+}
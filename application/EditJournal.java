@@ -0,0 +1,300 @@
+package application;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append only write-ahead log of the addMilk and removeMilk edits, so edits
+ * survive a restart without rewriting any CSV file. Every edit is one record of
+ * <ul>
+ * <li>the length of the payload</li>
+ * <li>the payload: the edit type, the packed date key, the weight and the UTF-8
+ * encoded farm ID</li>
+ * <li>a CRC32 of the payload</li>
+ * </ul>
+ * Records are written to the file as they come but only forced to disk once a
+ * batch of them is waiting or the sync interval has passed, so one edit costs a
+ * small write instead of an fsync. When the journal is opened its records are
+ * replayed on top of the loaded data, a torn record at the end left by a crash is
+ * cut off. Once most records are overwritten by later edits of the same reading
+ * the journal is compacted to the last edit of every reading
+ */
+public class EditJournal implements Closeable {
+	static final byte ADD = 1;
+	static final byte REMOVE = 2;
+
+	private static final int SYNC_BATCH = 64; // records written before the journal is forced to disk
+	private static final long SYNC_INTERVAL = 200; // milliseconds a record may wait for its fsync
+	private static final int COMPACT_THRESHOLD = 4096; // smallest journal that is compacted
+
+	/**
+	 * Receives the edits of a journal when it is replayed, in the order they were
+	 * made
+	 */
+	interface Replay {
+		void addMilk(String farmID, int date, int milkWeight);
+
+		void removeMilk(String farmID, int date);
+	}
+
+	private Path path;
+	private FileChannel channel;
+	private int records; // records in the file
+	private HashSet<String> readings = new HashSet<>(); // farm and date of every record in the file
+	private int unsynced; // records written since the last fsync
+	private IOException syncError; // failure of a background fsync, thrown by the next append
+	private ScheduledExecutorService syncer;
+
+	/**
+	 * opens a journal, creating the file if it does not exist, and replays its
+	 * edits
+	 * @param file journal file
+	 * @param replay receives every edit in the journal in the order it was made
+	 * @throws IOException if the file cannot be read or written
+	 */
+	EditJournal(File file, Replay replay) throws IOException {
+		path = file.toPath();
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		// cut off the torn record a crash may have left behind
+		long end = replay(replay);
+		if (end < channel.size()) {
+			channel.truncate(end);
+			channel.force(false);
+		}
+		channel.position(end);
+
+		syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "edit journal sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		syncer.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * reads every complete record of the file and passes it to a replay
+	 * @param replay receives the edits, or null to only count them
+	 * @return position after the last complete record
+	 * @throws IOException if reading the file has an error
+	 */
+	private long replay(Replay replay) throws IOException {
+		records = 0;
+		readings.clear();
+		ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+		while (buf.hasRemaining() && channel.read(buf, buf.position()) > 0)
+			;
+		buf.flip();
+
+		CRC32 checksum = new CRC32();
+		while (buf.remaining() >= 4) {
+			int start = buf.position();
+			int length = buf.getInt();
+			if (length < 9 || buf.remaining() < length + 4)
+				return start;
+
+			ByteBuffer payload = buf.slice();
+			payload.limit(length);
+			checksum.reset();
+			checksum.update(payload.duplicate());
+			buf.position(start + 4 + length);
+			if ((int) checksum.getValue() != buf.getInt())
+				return start;
+
+			byte type = payload.get();
+			int date = payload.getInt();
+			int milkWeight = payload.getInt();
+			byte[] id = new byte[payload.remaining()];
+			payload.get(id);
+			String farmID = new String(id, StandardCharsets.UTF_8);
+
+			records++;
+			readings.add(farmID + '\n' + date);
+			if (replay != null) {
+				if (type == ADD)
+					replay.addMilk(farmID, date, milkWeight);
+				else if (type == REMOVE)
+					replay.removeMilk(farmID, date);
+			}
+		}
+		return buf.position();
+	}
+
+	/**
+	 * appends an edit to the journal. The edit reaches the disk with the next
+	 * batch or sync interval
+	 * @param type ADD or REMOVE
+	 * @param farmID farm that was edited
+	 * @param date packed date key of the edited reading
+	 * @param milkWeight new weight of an ADD, ignored for a REMOVE
+	 * @throws IOException if writing the record or an earlier fsync failed
+	 */
+	synchronized void append(byte type, String farmID, int date, int milkWeight) throws IOException {
+		if (syncError != null) {
+			IOException e = syncError;
+			syncError = null;
+			throw e;
+		}
+
+		writeRecord(channel, type, farmID, date, milkWeight);
+		records++;
+		readings.add(farmID + '\n' + date);
+		if (++unsynced >= SYNC_BATCH)
+			sync();
+
+		// compact once most records only repeat earlier edits of the same reading
+		if (records >= COMPACT_THRESHOLD && records > 4 * readings.size())
+			compact();
+	}
+
+	/**
+	 * writes one record at the channel's position
+	 * @param channel file to write to
+	 * @param type ADD or REMOVE
+	 * @param farmID farm that was edited
+	 * @param date packed date key of the edited reading
+	 * @param milkWeight new weight of an ADD
+	 * @throws IOException if writing has an error
+	 */
+	private static void writeRecord(FileChannel channel, byte type, String farmID, int date, int milkWeight)
+			throws IOException {
+		byte[] id = farmID.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer record = ByteBuffer.allocate(4 + 9 + id.length + 4);
+		record.putInt(9 + id.length).put(type).putInt(date).putInt(milkWeight).put(id);
+
+		CRC32 checksum = new CRC32();
+		checksum.update(record.array(), 4, 9 + id.length);
+		record.putInt((int) checksum.getValue());
+		record.flip();
+		while (record.hasRemaining())
+			channel.write(record);
+	}
+
+	/**
+	 * forces every written record to disk
+	 * @throws IOException if the fsync fails
+	 */
+	public synchronized void sync() throws IOException {
+		if (unsynced > 0 && channel.isOpen()) {
+			channel.force(false);
+			unsynced = 0;
+		}
+	}
+
+	/**
+	 * background fsync, a failure is kept for the next append to throw
+	 */
+	private synchronized void syncQuietly() {
+		try {
+			sync();
+		} catch (IOException e) {
+			syncError = e;
+		}
+	}
+
+	/**
+	 * rewrites the journal with only the last edit of every reading. The compacted
+	 * journal is written next to the old one and moved in place, so a crash during
+	 * compaction leaves one of the two complete journals
+	 * @throws IOException if rewriting the journal has an error
+	 */
+	synchronized void compact() throws IOException {
+		LinkedHashMap<String, Edit> last = new LinkedHashMap<>();
+		replay(new Replay() {
+			@Override
+			public void addMilk(String farmID, int date, int milkWeight) {
+				put(ADD, farmID, date, milkWeight);
+			}
+
+			@Override
+			public void removeMilk(String farmID, int date) {
+				put(REMOVE, farmID, date, 0);
+			}
+
+			// the reading moves to the end, so replaying keeps the order of the last edits
+			private void put(byte type, String farmID, int date, int milkWeight) {
+				String reading = farmID + '\n' + date;
+				last.remove(reading);
+				last.put(reading, new Edit(type, farmID, date, milkWeight));
+			}
+		});
+
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Edit edit : last.values())
+				writeRecord(out, edit.type, edit.farmID, edit.date, edit.milkWeight);
+			out.force(true);
+		}
+
+		// the journal is reopened on whichever file is in place, the old one if the move failed
+		channel.close();
+		try {
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			records = last.size();
+			readings = new HashSet<>(last.keySet());
+			unsynced = 0;
+		} finally {
+			channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			channel.position(channel.size());
+		}
+	}
+
+	/**
+	 * empties the journal, once its edits are part of a saved snapshot
+	 * @throws IOException if truncating the file has an error
+	 */
+	synchronized void truncate() throws IOException {
+		channel.truncate(0);
+		channel.force(true);
+		records = 0;
+		readings.clear();
+		unsynced = 0;
+	}
+
+	/**
+	 * forces the remaining records to disk and closes the journal
+	 * @throws IOException if the final fsync or closing the file fails
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		syncer.shutdown();
+		try {
+			sync();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * One edit kept by compaction
+	 */
+	private static class Edit {
+		private byte type;
+		private String farmID;
+		private int date;
+		private int milkWeight;
+
+		Edit(byte type, String farmID, int date, int milkWeight) {
+			this.type = type;
+			this.farmID = farmID;
+			this.date = date;
+			this.milkWeight = milkWeight;
+		}
+	}
+}
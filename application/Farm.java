@@ -1,38 +1,77 @@
 package application;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
- * Farm class that holds data for each individual farm
+ * Farm class that holds data for each individual farm. A farm has at most one
+ * reading per day, so the readings are kept as a dense series in an int array
+ * indexed by days since the farm's first day, with MISSING marking days without
+ * a reading. Monthly totals are kept alongside and updated with every change,
+ * so month and year totals never rescan the daily readings, and a Fenwick tree
+ * answers date range totals in logarithmic time
  * @author richardwang
  *
  */
 public class Farm {
+	// marks a day without a reading, so this weight itself cannot be stored
+	static final int MISSING = Integer.MIN_VALUE;
+	private static final int INITIAL_CAPACITY = 32;
+
 	private String name;
-	private HashMap<String, Integer> map;
-	
+	private int firstDay; // epoch day stored at index 0 of weights
+	private int[] weights;
+	private int size; // number of days that have a reading
+	private int firstMonth; // month number, year * 12 + month - 1, stored at index 0 of monthTotals
+	private int[] monthTotals; // total weight of each month, kept up to date on every change
+	private int[] monthReadings; // number of readings in each month, indexed like monthTotals
+	private volatile int[] rangeIndex; // Fenwick tree over weights, built on the first range query
+	private DayLog log;
+
 	/**
 	 * constructor with no data in the farm
 	 * @param name of the farm
 	 */
 	public Farm(String name) {
 		this.name = name;
-		map = new HashMap<>();
 	}
-	
+
 	/**
 	 * constructor with 1 data input into the farm object
-	 * @param date date of the input
+	 * @param date packed date key of the input, see MilkDate.toKey
 	 * @param name of the farm
 	 * @param milkWeight weight of milk produced that on the given date
 	 */
-	public Farm(String date, String name, int milkWeight) {
+	public Farm(int date, String name, int milkWeight) {
 		this.name = name;
-		map = new HashMap<>();
+		addMilk(date, milkWeight);
+	}
 
-		map.put(date, milkWeight);
+	/**
+	 * constructor for a copy of a farm that shares no arrays with it
+	 * @param other farm to copy
+	 */
+	public Farm(Farm other) {
+		name = other.name;
+		firstDay = other.firstDay;
+		size = other.size;
+		firstMonth = other.firstMonth;
+		if (other.weights != null)
+			weights = other.weights.clone();
+		if (other.monthTotals != null) {
+			monthTotals = other.monthTotals.clone();
+			monthReadings = other.monthReadings.clone();
+		}
+		int[] tree = other.rangeIndex;
+		if (tree != null)
+			rangeIndex = tree.clone();
 	}
-	
+
 	/**
 	 * returns the name of the farm
 	 * @return name of the farm
@@ -40,26 +79,275 @@ public class Farm {
 	public String getName() {
 		return name;
 	}
-	
+
 	/**
 	 * adds an entry in farm, an entry contains date and milk weight
-	 * @param date of the entry
+	 * @param date packed date key of the entry
 	 * @param milkWeight of the entry
 	 */
-	public void addMilk(String date, int milkWeight) {
-		map.put(date, milkWeight);
+	public void addMilk(int date, int milkWeight) {
+		if (milkWeight == MISSING)
+			throw new IllegalArgumentException();
+
+		int index = indexFor(MilkDate.toEpochDay(date));
+		int old = weights[index];
+		int added = 0;
+		if (old == MISSING) {
+			size++;
+			old = 0;
+			added = 1;
+		}
+		weights[index] = milkWeight;
+		addToMonth(date, milkWeight - old, added);
+		addToRangeIndex(index, milkWeight - old);
 	}
-	
+
+	/**
+	 * adds every entry of another farm to this farm, replacing entries on the same
+	 * date
+	 * @param other farm to copy the entries from
+	 */
+	public void addAll(Farm other) {
+		if (other.size == 0)
+			return;
+
+		int last = other.weights.length - 1;
+		while (other.weights[last] == MISSING)
+			last--;
+		indexFor(other.firstDay);
+		indexFor(other.firstDay + last);
+		int offset = other.firstDay - firstDay;
+		for (int i = 0; i <= last; i++) {
+			if (other.weights[i] == MISSING)
+				continue;
+			int old = weights[i + offset];
+			int added = 0;
+			if (old == MISSING) {
+				size++;
+				old = 0;
+				added = 1;
+			}
+			weights[i + offset] = other.weights[i];
+			addToMonth(MilkDate.fromEpochDay(other.firstDay + i), other.weights[i] - old, added);
+			addToRangeIndex(i + offset, other.weights[i] - old);
+		}
+	}
+
 	/**
 	 * removes an entry in farm given a certain date
-	 * @param date of the entry
+	 * @param date packed date key of the entry
 	 * @throws MissingDataException if there are no entries that contain the given date
 	 */
-	public void removeMilk(String date) throws MissingDataException {
-		if (!map.containsKey(date))
+	public void removeMilk(int date) throws MissingDataException {
+		int index = size == 0 ? -1 : MilkDate.toEpochDay(date) - firstDay;
+		if (index < 0 || index >= weights.length || weights[index] == MISSING)
 			throw new MissingDataException();
 
-		map.remove(date);
+		addToMonth(date, -weights[index], -1);
+		addToRangeIndex(index, -weights[index]);
+		weights[index] = MISSING;
+		size--;
+	}
+
+	/**
+	 * gets the milk weight on a date
+	 * @param date packed date key
+	 * @return the milk weight, or MISSING if there is no entry for the date
+	 */
+	public int getMilkWeight(int date) {
+		int index = size == 0 ? -1 : MilkDate.toEpochDay(date) - firstDay;
+		if (index < 0 || index >= weights.length)
+			return MISSING;
+		return weights[index];
+	}
+
+	/**
+	 * gets the total milk weight between two dates
+	 * @param startDate packed date key of the first day, inclusive
+	 * @param endDate packed date key of the last day, inclusive
+	 * @return total milk weight of the entries in the range
+	 */
+	public int getMilkWeightInRange(int startDate, int endDate) {
+		if (size == 0)
+			return 0;
+
+		int from = Math.max(0, MilkDate.toEpochDay(startDate) - firstDay);
+		int to = Math.min(weights.length - 1, MilkDate.toEpochDay(endDate) - firstDay);
+		if (from > to)
+			return 0;
+
+		if (rangeIndex == null)
+			buildRangeIndex();
+		return prefixSum(to + 1) - prefixSum(from);
+	}
+
+	/**
+	 * builds the Fenwick tree over the current weights in linear time. Readers
+	 * sharing a lock may build it at the same time, the field is volatile so each
+	 * of them publishes a complete tree
+	 */
+	private void buildRangeIndex() {
+		int[] tree = new int[weights.length + 1];
+		for (int i = 1; i <= weights.length; i++) {
+			if (weights[i - 1] != MISSING)
+				tree[i] += weights[i - 1];
+			int parent = i + (i & -i);
+			if (parent <= weights.length)
+				tree[parent] += tree[i];
+		}
+		rangeIndex = tree;
+	}
+
+	/**
+	 * gets the total weight of the first days of the weights array
+	 * @param count number of days to total
+	 * @return total weight of indexes 0 to count - 1
+	 */
+	private int prefixSum(int count) {
+		int total = 0;
+		for (int i = count; i > 0; i -= i & -i)
+			total += rangeIndex[i];
+		return total;
+	}
+
+	/**
+	 * applies a change in weight to the Fenwick tree if it has been built. The tree
+	 * is dropped whenever the weights array is resized and rebuilt by the next
+	 * range query
+	 * @param index index of the changed day
+	 * @param change amount the weight changed by
+	 */
+	private void addToRangeIndex(int index, int change) {
+		if (rangeIndex == null || change == 0)
+			return;
+		for (int i = index + 1; i < rangeIndex.length; i += i & -i)
+			rangeIndex[i] += change;
+	}
+
+	/**
+	 * gets the total milk weight of a month
+	 * @param year year of the month
+	 * @param month month to total
+	 * @return total milk weight of the month
+	 */
+	public int getMonthlyMilkWeight(int year, int month) {
+		if (monthTotals == null)
+			return 0;
+		int index = year * 12 + month - 1 - firstMonth;
+		if (index < 0 || index >= monthTotals.length)
+			return 0;
+		return monthTotals[index];
+	}
+
+	/**
+	 * adds the total milk weight of every month of a year to an array
+	 * @param year year to total
+	 * @param monthMilkWeight array of 12 monthly totals to add to
+	 */
+	public void addMonthlyMilkWeight(int year, int[] monthMilkWeight) {
+		for (int month = 1; month <= 12; month++)
+			monthMilkWeight[month - 1] += getMonthlyMilkWeight(year, month);
+	}
+
+	/**
+	 * gets the number of readings in a month
+	 * @param year year of the month
+	 * @param month month to count
+	 * @return number of days in the month that have a reading
+	 */
+	public int getReadingCount(int year, int month) {
+		if (monthReadings == null)
+			return 0;
+		int index = year * 12 + month - 1 - firstMonth;
+		if (index < 0 || index >= monthReadings.length)
+			return 0;
+		return monthReadings[index];
+	}
+
+	/**
+	 * adds a change in milk weight to the total of the month it happened in
+	 * @param date packed date key of the change
+	 * @param change amount the weight changed by
+	 * @param readings change in the number of readings, -1, 0 or 1
+	 */
+	private void addToMonth(int date, int change, int readings) {
+		int monthNumber = MilkDate.yearOf(date) * 12 + MilkDate.monthOf(date) - 1;
+		if (monthTotals == null) {
+			monthTotals = new int[12];
+			monthReadings = new int[12];
+			firstMonth = monthNumber;
+		}
+
+		int index = monthNumber - firstMonth;
+		if (index >= monthTotals.length) {
+			int capacity = Math.max(monthTotals.length * 2, index + 1);
+			monthTotals = Arrays.copyOf(monthTotals, capacity);
+			monthReadings = Arrays.copyOf(monthReadings, capacity);
+		}
+
+		else if (index < 0) {
+			int shift = Math.max(monthTotals.length, -index);
+			int[] grown = new int[monthTotals.length + shift];
+			System.arraycopy(monthTotals, 0, grown, shift, monthTotals.length);
+			monthTotals = grown;
+			grown = new int[monthReadings.length + shift];
+			System.arraycopy(monthReadings, 0, grown, shift, monthReadings.length);
+			monthReadings = grown;
+			firstMonth -= shift;
+			index += shift;
+		}
+		monthTotals[index] += change;
+		monthReadings[index] += readings;
+	}
+
+	/**
+	 * finds the index of a day in the weights array, growing the array at either
+	 * end if the day is outside of it
+	 * @param epochDay day to find
+	 * @return index of the day
+	 */
+	private int indexFor(int epochDay) {
+		if (weights == null) {
+			weights = new int[INITIAL_CAPACITY];
+			Arrays.fill(weights, MISSING);
+			firstDay = epochDay;
+			return 0;
+		}
+
+		int index = epochDay - firstDay;
+		if (index >= weights.length) {
+			int capacity = Math.max(weights.length * 2, index + 1);
+			int[] grown = new int[capacity];
+			System.arraycopy(weights, 0, grown, 0, weights.length);
+			Arrays.fill(grown, weights.length, capacity, MISSING);
+			weights = grown;
+			rangeIndex = null;
+		}
+
+		else if (index < 0) {
+			int shift = Math.max(weights.length, -index);
+			int[] grown = new int[weights.length + shift];
+			Arrays.fill(grown, 0, shift, MISSING);
+			System.arraycopy(weights, 0, grown, shift, weights.length);
+			weights = grown;
+			rangeIndex = null;
+			firstDay -= shift;
+			index += shift;
+		}
+		return index;
+	}
+
+	/**
+	 * visits every entry of the farm in date order
+	 * @param visitor receives the packed date key and milk weight of each entry
+	 */
+	public void forEachReading(MilkStore.ReadingVisitor visitor) {
+		if (weights == null)
+			return;
+		for (int i = 0; i < weights.length; i++) {
+			if (weights[i] != MISSING)
+				visitor.reading(MilkDate.fromEpochDay(firstDay + i), weights[i]);
+		}
 	}
 
 	/**
@@ -69,12 +357,110 @@ public class Farm {
 	public void setName(String name) {
 		this.name = name;
 	}
-	
+
+	/**
+	 * gets the list of entries
+	 * @return Map view of the entries for the farm, keyed by packed date key.
+	 *         Changes to the view are written through to the farm
+	 */
+	public Map<Integer, Integer> getMilkWeightLog() {
+		if (log == null)
+			log = new DayLog();
+		return log;
+	}
+
 	/**
-	 * gets the list of entries 
-	 * @return HashMap of entries for the farm
+	 * Map view over the dense weights array, so callers can still treat the log as
+	 * a date to weight map
 	 */
-	public HashMap<String, Integer> getMilkWeightLog() {
-		return map;
+	private class DayLog extends AbstractMap<Integer, Integer> {
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof Integer && getMilkWeight((Integer) key) != MISSING;
+		}
+
+		@Override
+		public Integer get(Object key) {
+			if (!(key instanceof Integer))
+				return null;
+			int weight = getMilkWeight((Integer) key);
+			return weight == MISSING ? null : weight;
+		}
+
+		@Override
+		public Integer put(Integer key, Integer value) {
+			Integer old = get(key);
+			addMilk(key, value);
+			return old;
+		}
+
+		@Override
+		public Integer remove(Object key) {
+			Integer old = get(key);
+			if (old != null) {
+				try {
+					removeMilk((Integer) key);
+				} catch (MissingDataException e) {
+					// checked by get above
+				}
+			}
+			return old;
+		}
+
+		@Override
+		public Set<Map.Entry<Integer, Integer>> entrySet() {
+			return new AbstractSet<Map.Entry<Integer, Integer>>() {
+
+				@Override
+				public int size() {
+					return size;
+				}
+
+				@Override
+				public Iterator<Map.Entry<Integer, Integer>> iterator() {
+					return new Iterator<Map.Entry<Integer, Integer>>() {
+						private int next = advance(0);
+						private int last = -1;
+
+						private int advance(int index) {
+							while (weights != null && index < weights.length && weights[index] == MISSING)
+								index++;
+							return index;
+						}
+
+						@Override
+						public boolean hasNext() {
+							return weights != null && next < weights.length;
+						}
+
+						@Override
+						public Map.Entry<Integer, Integer> next() {
+							if (!hasNext())
+								throw new NoSuchElementException();
+							last = next;
+							next = advance(next + 1);
+							return new AbstractMap.SimpleImmutableEntry<>(
+									MilkDate.fromEpochDay(firstDay + last), weights[last]);
+						}
+
+						@Override
+						public void remove() {
+							if (last < 0 || weights[last] == MISSING)
+								throw new IllegalStateException();
+							addToMonth(MilkDate.fromEpochDay(firstDay + last), -weights[last], -1);
+							addToRangeIndex(last, -weights[last]);
+							weights[last] = MISSING;
+							size--;
+						}
+					};
+				}
+			};
+		}
 	}
 }
@@ -0,0 +1,87 @@
+package application;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary that gives every farm ID a dense int handle, handles run from 0 in
+ * the order farms are added. Stores keep their data in arrays indexed by handle,
+ * so ingest and the report kernels can work on int indices and only look up farm
+ * ID strings at the API edge. Handles are never reassigned, so a snapshot of the
+ * dictionary shares its map and array and only stops at the size it was taken
+ * at
+ */
+public class FarmDictionary {
+	private ConcurrentHashMap<String, Integer> handles;
+	private String[] ids;
+	private int size;
+
+	/**
+	 * constructor for an empty dictionary
+	 */
+	public FarmDictionary() {
+		handles = new ConcurrentHashMap<>();
+		ids = new String[16];
+	}
+
+	/**
+	 * constructor for a snapshot that shares the map and array of a dictionary
+	 * @param handles handles of the farm IDs, including farms added later
+	 * @param ids farm IDs by handle
+	 * @param size number of farms in the snapshot
+	 */
+	private FarmDictionary(ConcurrentHashMap<String, Integer> handles, String[] ids, int size) {
+		this.handles = handles;
+		this.ids = ids;
+		this.size = size;
+	}
+
+	/**
+	 * gets the handle of a farm ID
+	 * @param farmID ID of the farm
+	 * @return handle of the farm, or -1 if the farm is not in the dictionary
+	 */
+	public int handleOf(String farmID) {
+		Integer handle = handles.get(farmID);
+		return handle == null || handle >= size ? -1 : handle;
+	}
+
+	/**
+	 * adds a farm ID to the dictionary
+	 * @param farmID ID to add, it must not be in the dictionary yet
+	 * @return handle of the farm
+	 */
+	public int add(String farmID) {
+		if (size == ids.length)
+			ids = Arrays.copyOf(ids, size * 2);
+		ids[size] = farmID;
+		handles.put(farmID, size);
+		return size++;
+	}
+
+	/**
+	 * gets the ID of a farm by its handle
+	 * @param handle handle of the farm
+	 * @return ID of the farm
+	 */
+	public String idOf(int handle) {
+		return ids[handle];
+	}
+
+	/**
+	 * gets a read only view of the farms in the dictionary now. Farms added later
+	 * only write beyond the view's size, so the view never changes
+	 * @return snapshot of the dictionary, it must not be added to
+	 */
+	FarmDictionary snapshot() {
+		return new FarmDictionary(handles, ids, size);
+	}
+
+	/**
+	 * gets the number of farms in the dictionary, handles run from 0 to size - 1
+	 * @return number of farms
+	 */
+	public int size() {
+		return size;
+	}
+}
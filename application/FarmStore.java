@@ -0,0 +1,156 @@
+package application;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Default MilkStore that keeps one Farm object per farm handle, each holding its
+ * readings as a dense daily series with monthly totals. Snapshots share the farm
+ * objects with the store, a shared farm is copied before the store writes to it
+ * the first time, so only the farms that change after a snapshot are copied
+ */
+public class FarmStore implements MilkStore {
+	private static final int SHARDS = 64;
+	private FarmDictionary dictionary = new FarmDictionary();
+	private Farm[] farms = new Farm[16];
+	private boolean[] shared = new boolean[16]; // farms that a snapshot holds, copied before they are written
+
+	@Override
+	public int farmCount() {
+		return dictionary.size();
+	}
+
+	@Override
+	public int handleOf(String farmID) {
+		return dictionary.handleOf(farmID);
+	}
+
+	@Override
+	public String idOf(int farm) {
+		return dictionary.idOf(farm);
+	}
+
+	@Override
+	public int addFarm(String farmID) {
+		return add(new Farm(farmID));
+	}
+
+	/**
+	 * adds a farm object under a new handle
+	 * @param farm farm to add, its name must not be in the store yet
+	 * @return handle of the farm
+	 */
+	private int add(Farm farm) {
+		int handle = dictionary.add(farm.getName());
+		if (handle == farms.length) {
+			farms = Arrays.copyOf(farms, handle * 2);
+			shared = Arrays.copyOf(shared, handle * 2);
+		}
+		farms[handle] = farm;
+		return handle;
+	}
+
+	/**
+	 * gets a farm to write to, copying it first if a snapshot holds it
+	 * @param farm handle of the farm
+	 * @return the farm, only held by this store
+	 */
+	private Farm writable(int farm) {
+		if (shared[farm]) {
+			farms[farm] = new Farm(farms[farm]);
+			shared[farm] = false;
+		}
+		return farms[farm];
+	}
+
+	/**
+	 * gets a farm by its handle
+	 * @param farm handle of the farm
+	 * @return the farm
+	 */
+	public Farm getFarm(int farm) {
+		return farms[farm];
+	}
+
+	@Override
+	public void addMilk(int farm, int date, int milkWeight) {
+		writable(farm).addMilk(date, milkWeight);
+	}
+
+	@Override
+	public void removeMilk(int farm, int date) throws MissingDataException {
+		// a failed removal leaves the farm unchanged, so it is not worth a copy
+		if (farms[farm].getMilkWeight(date) == MISSING)
+			throw new MissingDataException();
+		writable(farm).removeMilk(date);
+	}
+
+	@Override
+	public int getMilkWeight(int farm, int date) {
+		return farms[farm].getMilkWeight(date);
+	}
+
+	@Override
+	public int getMonthlyMilkWeight(int farm, int year, int month) {
+		return farms[farm].getMonthlyMilkWeight(year, month);
+	}
+
+	@Override
+	public int getReadingCount(int farm, int year, int month) {
+		return farms[farm].getReadingCount(year, month);
+	}
+
+	@Override
+	public int getMilkWeightInRange(int farm, int startDate, int endDate) {
+		return farms[farm].getMilkWeightInRange(startDate, endDate);
+	}
+
+	@Override
+	public void forEachReading(int farm, ReadingVisitor visitor) {
+		farms[farm].forEachReading(visitor);
+	}
+
+	/**
+	 * merges another FarmStore by reusing its farm objects for new farms and
+	 * copying dense series otherwise, other stores go through the readings
+	 */
+	@Override
+	public void addAll(MilkStore batch, List<String> addedFarms) {
+		if (!(batch instanceof FarmStore)) {
+			MilkStore.super.addAll(batch, addedFarms);
+			return;
+		}
+
+		FarmStore other = (FarmStore) batch;
+		for (int parsed = 0; parsed < other.farmCount(); parsed++) {
+			Farm farm = other.farms[parsed];
+			int handle = handleOf(farm.getName());
+
+			// if a new farm is being added the parsed farm can be reused as is
+			if (handle < 0) {
+				add(farm);
+				addedFarms.add(farm.getName());
+			}
+			else
+				writable(handle).addAll(farm);
+		}
+	}
+
+	/**
+	 * farms only share the dictionary and the arrays that addFarm grows, so writes
+	 * to different farms can run at once
+	 */
+	@Override
+	public int shards() {
+		return SHARDS;
+	}
+
+	@Override
+	public MilkStore snapshot() {
+		FarmStore snapshot = new FarmStore();
+		snapshot.dictionary = dictionary.snapshot();
+		snapshot.farms = Arrays.copyOf(farms, dictionary.size());
+		Arrays.fill(shared, 0, dictionary.size(), true);
+		return snapshot;
+	}
+}
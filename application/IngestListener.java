@@ -0,0 +1,16 @@
+package application;
+
+/**
+ * Receives the progress of MilkManager.constructMap and constructMapMapped. It
+ * is called from the threads that parse the files, possibly from several at
+ * once, so it should only hand the numbers over to whatever displays them
+ */
+public interface IngestListener {
+	/**
+	 * reports how far the ingest has come
+	 * @param rows number of valid rows parsed so far
+	 * @param bytes number of bytes read so far
+	 * @param totalBytes total size of the files being ingested
+	 */
+	void progress(long rows, long bytes, long totalBytes);
+}
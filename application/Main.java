@@ -10,22 +10,28 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import application.MilkManager.WeightPercentPair;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.HPos;
 import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
@@ -53,6 +59,7 @@ import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Text;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Modality;
@@ -74,6 +81,18 @@ public class Main extends Application {
 	boolean negativeMilkWeightExceptionBool = false; // Used for exception handling
 	boolean updated = false;
 	boolean displayPercentages = true;
+	boolean journalOpen = false; // true once the edit journal has been replayed
+	DirectoryWatcher directoryWatcher; // watches the folder picked with Watch Folder
+	boolean ingesting = false; // true while files are parsed in the background
+	boolean tailing = false; // true while watched files are tailed in the background
+	TreeSet<File> pendingTails = new TreeSet<>(); // watched files that changed while an ingest or tail ran
+	Task<?> reportTask; // report that was requested last
+	// one report thread, a cancelled report stops within a few farms so the next one barely waits
+	private ExecutorService reportExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "reports");
+		thread.setDaemon(true);
+		return thread;
+	});
 	ObservableList<String> yearList; // Lists to hold user inputed data
 	ObservableList<String> monthList;
 	ObservableList<String> farmIDList;
@@ -83,13 +102,204 @@ public class Main extends Application {
 	private static final int WINDOW_HEIGHT = 900;
 	private static final String APP_TITLE = "Milk Weights Display";
 
+	/**
+	 * Opens the edit journal named by -Dmilk.journal after the first data is
+	 * loaded, so the edits it holds are replayed on top of that data
+	 * 
+	 * @throws IOException if the journal cannot be read or written
+	 */
+	private void openJournal() throws IOException {
+		String journal = System.getProperty("milk.journal");
+		if (journal != null && !journalOpen) {
+			milkManager.openJournal(new File(journal));
+			journalOpen = true;
+		}
+	}
+
+	/**
+	 * Forces the journaled edits to disk when the application exits
+	 */
+	@Override
+	public void stop() throws Exception {
+		if (directoryWatcher != null)
+			directoryWatcher.close();
+		milkManager.closeJournal();
+	}
+
+	/**
+	 * Parses files on a background task so the window stays responsive. While it
+	 * runs the right column shows the rows and bytes read with a cancel button,
+	 * and the other controls are disabled. The farms, years, and months are
+	 * published to the drop boxes once, after the task has stopped
+	 * 
+	 * @param files        files to parse
+	 * @param left         left VBox of the GUI
+	 * @param right        right VBox of the GUI
+	 * @param center       center VBox of the GUI
+	 * @param primaryStage the main stage
+	 */
+	private void ingestFiles(List<File> files, VBox left, VBox right, VBox center, Stage primaryStage) {
+		Task<Void> ingest = new Task<Void>() {
+			@Override
+			protected Void call() throws Exception {
+				IngestListener listener = (rows, bytes, totalBytes) -> {
+					updateProgress(bytes, totalBytes);
+					updateMessage(rows + " rows, " + bytes / 1024 + " of " + totalBytes / 1024 + " KB");
+				};
+
+				// a large file is mapped and split so several threads parse it
+				if (MilkManager.preferMapped(files))
+					milkManager.constructMapMapped(files, listener);
+				else
+					milkManager.constructMap(files, true, listener);
+				return null;
+			}
+		};
+		ingest.setOnFailed(e -> {
+			ingest.getException().printStackTrace();
+			Alert alert = new Alert(AlertType.WARNING, "Error occurred while reading the files", ButtonType.OK);
+			alert.showAndWait();
+		});
+
+		// Progress of the task and a button to cancel it
+		ProgressBar progressBar = new ProgressBar();
+		progressBar.progressProperty().bind(ingest.progressProperty());
+		Label progressLabel = new Label();
+		progressLabel.textProperty().bind(ingest.messageProperty());
+		Button cancel = new Button("Cancel");
+		cancel.setOnAction(e -> ingest.cancel());
+		VBox progressBox = new VBox(progressBar, progressLabel, cancel);
+		progressBox.setSpacing(5);
+
+		ingesting = true;
+		left.setDisable(true);
+		for (Node node : right.getChildren())
+			node.setDisable(true);
+		right.getChildren().add(progressBox);
+
+		// run returns only once the parse has stopped, even after a cancel, so the
+		// lists are read from a data set nothing is writing to anymore
+		Thread thread = new Thread(() -> {
+			ingest.run();
+			Platform.runLater(() -> {
+				ingesting = false;
+				left.setDisable(false);
+				try {
+					openJournal();
+
+					// Lists to hold all the possible farms, years, and months parsed from the user
+					// selected files
+					yearList = FXCollections.observableArrayList(milkManager.getYears());
+					monthList = FXCollections.observableArrayList(milkManager.getMonths());
+					farmIDList = FXCollections.observableArrayList(milkManager.getFarms());
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (InvalidDateException e) {
+					e.printStackTrace();
+				}
+				left.getChildren().clear(); // Clears the left and right columns
+				right.getChildren().clear();
+
+				// Reformats the left and right columns so the
+				// drop boxes contain the correct options
+				formatLeft(left, center, primaryStage);
+				formatRight(left, right, center, primaryStage);
+
+				// watched files that changed during the ingest
+				if (!pendingTails.isEmpty() && !tailing)
+					tailFiles(left, right, center, primaryStage);
+			});
+		}, "ingest");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues watched files that were created or appended to. They are tailed right
+	 * away unless an ingest or tail is running, then they wait until it stops
+	 * 
+	 * @param files        files that were created or appended to
+	 * @param left         left VBox of the GUI
+	 * @param right        right VBox of the GUI
+	 * @param center       center VBox of the GUI
+	 * @param primaryStage the main stage
+	 */
+	private void queueTail(List<File> files, VBox left, VBox right, VBox center, Stage primaryStage) {
+		pendingTails.addAll(files);
+		if (!ingesting && !tailing)
+			tailFiles(left, right, center, primaryStage);
+	}
+
+	/**
+	 * Adds the rows appended to the queued files on a background thread, since the
+	 * first change of a watched folder lists every file in it. Back on the GUI
+	 * thread the drop boxes are refreshed if a farm, year, or month was added, and
+	 * the files queued in the meantime are tailed next
+	 * 
+	 * @param left         left VBox of the GUI
+	 * @param right        right VBox of the GUI
+	 * @param center       center VBox of the GUI
+	 * @param primaryStage the main stage
+	 */
+	private void tailFiles(VBox left, VBox right, VBox center, Stage primaryStage) {
+		List<File> files = new ArrayList<>(pendingTails);
+		pendingTails.clear();
+		tailing = true;
+
+		Thread thread = new Thread(() -> {
+			try {
+				milkManager.tail(files);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			Platform.runLater(() -> {
+				tailing = false;
+
+				// an ingest that started meanwhile refreshes the drop boxes and tails the queue once it stops
+				if (ingesting)
+					return;
+
+				try {
+					openJournal();
+
+					ArrayList<String> years = milkManager.getYears();
+					ArrayList<String> months = milkManager.getMonths();
+					ArrayList<String> farms = milkManager.getFarms();
+					if (!years.equals(yearList) || !months.equals(monthList) || !farms.equals(farmIDList)) {
+						yearList = FXCollections.observableArrayList(years);
+						monthList = FXCollections.observableArrayList(months);
+						farmIDList = FXCollections.observableArrayList(farms);
+						left.getChildren().clear();
+						right.getChildren().clear();
+						formatLeft(left, center, primaryStage);
+						formatRight(left, right, center, primaryStage);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (InvalidDateException e) {
+					e.printStackTrace();
+				}
+
+				if (!pendingTails.isEmpty())
+					tailFiles(left, right, center, primaryStage);
+			});
+		}, "tail");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
 	/**
 	 * Display method that runs and manages the GUI
 	 */
 	public void start(Stage primaryStage) throws Exception {
 
-		// Create a MilkManager Object and construct the hash table to hold the data
-		milkManager = new MilkManager();
+		// Create a MilkManager Object and construct the hash table to hold the data,
+		// -Dmilk.offheap=true keeps the daily readings outside of the heap
+		milkManager = Boolean.getBoolean("milk.offheap") ? new MilkManager(new OffHeapStore()) : new MilkManager();
+
+		// -Dmilk.reportCache sets how many reports are cached, the default is 64
+		milkManager.setReportCacheCapacity(Integer.getInteger("milk.reportCache", MilkManager.DEFAULT_CACHE_CAPACITY));
 
 		// save the runtime args
 		args = this.getParameters().getRaw();
@@ -135,7 +345,7 @@ public class Main extends Application {
 				new BorderStroke(Color.BLACK, BorderStrokeStyle.SOLID, CornerRadii.EMPTY, BorderWidths.DEFAULT)));
 
 		ScrollPane scrollPane = new ScrollPane(center);
-		scrollPane.fitToHeightProperty();
+		scrollPane.setFitToHeight(true);
 		scrollPane.setStyle(centerBorder);
 
 		// Add labels to the left and right and top of the scene
@@ -184,7 +394,9 @@ public class Main extends Application {
 
 		// This button will launch a new window to edit/add/remove data
 		Button editDataButton = new Button("Edit Data");
-		HBox buttonBox = new HBox(editDataButton);
+		Button applyCorrectionsButton = new Button("Apply Corrections");
+		HBox buttonBox = new HBox(editDataButton, applyCorrectionsButton);
+		buttonBox.setSpacing(5);
 
 		// Event handling for the edit data button
 		editDataButton.setOnAction(e -> {
@@ -203,6 +415,41 @@ public class Main extends Application {
 			}
 		});
 		
+		// Applies a whole csv file of corrections at once, instead of one pop up per
+		// correction
+		applyCorrectionsButton.setOnAction(e -> {
+			FileChooser correctionChooser = new FileChooser();
+			correctionChooser.getExtensionFilters().add(new ExtensionFilter("csv Files", "*.csv"));
+			File file = correctionChooser.showOpenDialog(primaryStage);
+			if (file == null)
+				return;
+
+			String warning = null;
+			try {
+				List<Correction> corrections = Correction.readAll(file);
+				milkManager.applyCorrections(corrections);
+				Alert alert = new Alert(AlertType.CONFIRMATION, corrections.size()
+						+ " corrections applied successfully (must redisplay to take affect).", ButtonType.OK);
+				alert.showAndWait();
+			} catch (ParseException e1) {
+				warning = "Line " + e1.getErrorOffset() + " of the file is not a valid correction.";
+			} catch (FarmNotFoundException e1) {
+				warning = "A correction is for a farm that does not exist.";
+			} catch (NegativeMilkWeightException e1) {
+				warning = "A correction has a negative milk weight.";
+			} catch (MissingDataException e1) {
+				warning = "A correction removes milk weight data that does not exist.";
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+
+			// Nothing is applied if a correction is invalid
+			if (warning != null) {
+				Alert alert = new Alert(AlertType.WARNING, warning + " No corrections were applied.", ButtonType.OK);
+				alert.showAndWait();
+			}
+		});
+
 		// Adds the edit data elements to the left column
 		left.getChildren().addAll(editDataTitle, blankSpace, editData, farmIDComboBox1, datePick, buttonBox);
 
@@ -453,40 +700,75 @@ public class Main extends Application {
 		addFile.setOnAction(e -> {
 			List<File> files = fileChooser.showOpenMultipleDialog(primaryStage); // Holds all the user
 																					// selected files
-			if (!files.isEmpty())
+			if (files != null && !files.isEmpty())
+				ingestFiles(files, left, right, center, primaryStage);
+		});
+
+		// Elements for saving the loaded data to a snapshot and restoring it, which
+		// is much faster than parsing the csv files again
+		FileChooser snapshotChooser = new FileChooser();
+		snapshotChooser.getExtensionFilters().add(new ExtensionFilter("Snapshot Files", "*.milk"));
+
+		Button saveSnapshot = new Button("Save Snapshot");
+		Button loadSnapshot = new Button("Load Snapshot");
+		HBox snapshotButtons = new HBox(saveSnapshot, loadSnapshot);
+		snapshotButtons.setSpacing(5);
+
+		// Event handling for the save snapshot button
+		saveSnapshot.setOnAction(e -> {
+			File file = snapshotChooser.showSaveDialog(primaryStage);
+			if (file != null)
+				try {
+					milkManager.saveSnapshot(file);
+				} catch (IOException e1) {
+					e1.printStackTrace();
+				}
+		});
+
+		// Event handling for the load snapshot button
+		loadSnapshot.setOnAction(e -> {
+			File file = snapshotChooser.showOpenDialog(primaryStage);
+			if (file != null)
 				try {
-					milkManager.constructMap(files);
+					milkManager.loadSnapshot(file);
+					openJournal();
 
-					// Lists to hold all the possible farms, years, and months parsed from the user
-					// selected
-					// files
+					// Refresh the farms, years, and months the same way adding files does
 					yearList = FXCollections.observableArrayList(milkManager.getYears());
 					monthList = FXCollections.observableArrayList(milkManager.getMonths());
 					farmIDList = FXCollections.observableArrayList(milkManager.getFarms());
-					left.getChildren().clear(); // Clears the left and right columns
+					left.getChildren().clear();
 					right.getChildren().clear();
-
-					// Reformats the left and right columns so the
-					// drop boxes contain the correct options
 					formatLeft(left, center, primaryStage);
 					formatRight(left, right, center, primaryStage);
-				} catch (NumberFormatException e1) {
-					// TODO Auto-generated catch block
-
 				} catch (IOException e1) {
-					// TODO Auto-generated catch block
+					e1.printStackTrace();
+				} catch (InvalidDateException e1) {
+					e1.printStackTrace();
+				}
+		});
 
-				} catch (ParseException e1) {
-					// TODO Auto-generated catch block
+		// Element for watching a folder, rows appended to its csv files and new
+		// monthly files are added as they are written
+		DirectoryChooser directoryChooser = new DirectoryChooser();
+		Button watchFolder = new Button("Watch Folder");
 
-				} catch (InvalidDateException e1) {
-					// TODO Auto-generated catch block
+		// Event handling for the watch folder button
+		watchFolder.setOnAction(e -> {
+			File directory = directoryChooser.showDialog(primaryStage);
+			if (directory != null)
+				try {
+					if (directoryWatcher != null)
+						directoryWatcher.close();
+					directoryWatcher = new DirectoryWatcher(directory,
+							files -> Platform.runLater(() -> queueTail(files, left, right, center, primaryStage)));
+				} catch (IOException e1) {
 					e1.printStackTrace();
 				}
 		});
 
 		// Adds of the add file elements
-		right.getChildren().addAll(addDataTitle, blankSpace, addFile);
+		right.getChildren().addAll(addDataTitle, blankSpace, addFile, snapshotButtons, watchFolder);
 
 		// Spacing between functions
 		Label blankSpace1 = new Label("");
@@ -1075,9 +1357,14 @@ public class Main extends Application {
 	 */
 	public void farmReportButtonAction(String farmID, String year, VBox center)
 			throws FarmNotFoundException, InvalidDateException {
+		// Check the input here, so the alerts still come from the button handler
+		Integer.parseInt(year);
+		if (farmID == null || !farmIDList.contains(farmID))
+			throw new NullPointerException();
+
 		// Get the farms data
-		HashMap<Integer, WeightPercentPair> farmReport = milkManager.farmReport(farmID, year);
-		formatCenterFarmReport(center, farmReport, farmID, year);
+		runReport(() -> milkManager.farmReport(farmID, year),
+				farmReport -> formatCenterFarmReport(center, farmReport, farmID, year));
 	}
 
 	/**
@@ -1101,39 +1388,11 @@ public class Main extends Application {
 		// Button elemetns
 		Button saveReport = new Button("Save Report");
 
-		// courtesy of https://mkyong.com/java8/java-8-how-to-sort-a-map/
-		Map<String, WeightPercentPair> sorted = annualReport.entrySet().stream().sorted(Map.Entry.comparingByKey())
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (oldValue, newValue) -> oldValue,
-						LinkedHashMap::new));
-
-		// Iterates through the farm data
-		for (Map.Entry<String, WeightPercentPair> entry : sorted.entrySet()) {
-			Label farmName = new Label(entry.getKey());
-			farmName.setUnderline(true);
-
-			// Gets the weight and percent
-			WeightPercentPair pair = annualReport.get(entry.getKey());
-			int weight = pair.getMilkWeight();
-			double percent = pair.getPercent();
-
-			HBox arBox = new HBox();
-
-			Label milkWeight = new Label(weight + " lbs   ");
-
-			ProgressBar pb = new ProgressBar();
-			pb.setProgress(percent);
-
-			Label percentage = new Label("  (" + df.format(percent * 100) + "%)");
-
-			// Only displays the percent if the display percentages check box is checked
-			if (displayPercentages) {
-				arBox.getChildren().addAll(milkWeight, pb, percentage);
-			} else {
-				arBox.getChildren().add(milkWeight);
-			}
-			column1.getChildren().addAll(farmName, arBox);
-		}
-		column1.getChildren().add(saveReport);
+		// Only the visible farms get nodes, so a report with many farms displays quickly
+		ReportView reportView = new ReportView(annualReport, displayPercentages);
+		VBox.setVgrow(reportView, Priority.ALWAYS);
+		column1.getChildren().addAll(reportView, saveReport);
+		VBox.setVgrow(column1, Priority.ALWAYS);
 		
 		// Clears the center of the GUI and then adds the data
 		center.getChildren().clear();
@@ -1153,8 +1412,9 @@ public class Main extends Application {
 	 * @throws InvalidDateException if the user input date is invalid
 	 */
 	public void annualReportButtonAction(String year, VBox center) throws InvalidDateException {
-		HashMap<String, WeightPercentPair> annualReport = milkManager.annualReport(year);
-		formatCenterAnnualReport(center, annualReport, year);
+		Integer.parseInt(year);
+		runReport(() -> milkManager.annualReport(year),
+				annualReport -> formatCenterAnnualReport(center, annualReport, year));
 	}
 
 	/**
@@ -1177,39 +1437,11 @@ public class Main extends Application {
 
 		Button saveReport = new Button("Save Report");
 
-		// courtesy of https://mkyong.com/java8/java-8-how-to-sort-a-map/
-		Map<String, WeightPercentPair> sorted = monthlyReport.entrySet().stream().sorted(Map.Entry.comparingByKey())
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (oldValue, newValue) -> oldValue,
-						LinkedHashMap::new));
-
-		// Iterates through the data
-		for (Map.Entry<String, WeightPercentPair> entry : sorted.entrySet()) {
-			Label farmName = new Label(entry.getKey());
-			farmName.setUnderline(true);
-
-			// Gets the weight and percent
-			WeightPercentPair pair = monthlyReport.get(entry.getKey());
-			int weight = pair.getMilkWeight();
-			double percent = pair.getPercent();
-
-			HBox mrBox = new HBox();
-
-			Label milkWeight = new Label(weight + " lbs   ");
-
-			ProgressBar pb = new ProgressBar();
-			pb.setProgress(percent);
-
-			Label percentage = new Label("  (" + df.format(percent * 100) + "%)");
-
-			// Only displays the percent if the display percentages check box is checked
-			if (displayPercentages) {
-				mrBox.getChildren().addAll(milkWeight, pb, percentage);
-			} else {
-				mrBox.getChildren().add(milkWeight);
-			}
-			column1.getChildren().addAll(farmName, mrBox);
-		}
-		column1.getChildren().add(saveReport);
+		// Only the visible farms get nodes, so a report with many farms displays quickly
+		ReportView reportView = new ReportView(monthlyReport, displayPercentages);
+		VBox.setVgrow(reportView, Priority.ALWAYS);
+		column1.getChildren().addAll(reportView, saveReport);
+		VBox.setVgrow(column1, Priority.ALWAYS);
 		
 		// Clears the center of the GUI and then adds the display data
 		center.getChildren().clear();
@@ -1231,8 +1463,10 @@ public class Main extends Application {
 	 */
 	public void monthlyReportButtonAction(String month, String year, VBox center)
 			throws FarmNotFoundException, InvalidDateException {
-		HashMap<String, WeightPercentPair> monthlyReport = milkManager.monthlyReport(month, year);
-		formatCenterMonthlyReport(center, monthlyReport, month, year);
+		MilkManager.parseMonth(month);
+		Integer.parseInt(year);
+		runReport(() -> milkManager.monthlyReport(month, year),
+				monthlyReport -> formatCenterMonthlyReport(center, monthlyReport, month, year));
 	}
 
 	/**
@@ -1242,27 +1476,9 @@ public class Main extends Application {
 	 * @param dateRangeReport HashMap that holds all the necessary farm data
 	 * @param startDate       the start date of the data
 	 * @param endDate         end date of the data
-	 * @throws InvalidDateException         if the user inputed data is invalid
-	 * @throws StartDateOutOfRangeException if the user inputed start date is
-	 *                                      invalid
-	 * @throws EndDateOutOfRangeException   if the user input end date is invalid
 	 */
 	public void formatCenterDateRangeReport(VBox center, HashMap<String, WeightPercentPair> dateRangeReport,
-			String startDate, String endDate)
-			throws InvalidDateException, StartDateOutOfRangeException, EndDateOutOfRangeException {
-		// check if start date is after end date
-		MilkDate startDateVerify = new MilkDate(startDate);
-		MilkDate endDateVerify = new MilkDate(endDate);
-
-		if (startDateVerify.compareTo(endDateVerify) > 0)
-			throw new InvalidDateException();
-
-		if (startDateVerify.compareTo(milkManager.minDate) < 0 || startDateVerify.compareTo(milkManager.maxDate) > 0)
-			throw new StartDateOutOfRangeException();
-
-		if (endDateVerify.compareTo(milkManager.maxDate) > 0 || endDateVerify.compareTo(milkManager.minDate) < 0)
-			throw new EndDateOutOfRangeException();
-
+			String startDate, String endDate) {
 		// Create the first column of data
 		VBox column1 = new VBox();
 
@@ -1272,39 +1488,11 @@ public class Main extends Application {
 
 		Button saveReport = new Button("Save Report");
 
-		// courtesy of https://mkyong.com/java8/java-8-how-to-sort-a-map/
-		Map<String, WeightPercentPair> sorted = dateRangeReport.entrySet().stream().sorted(Map.Entry.comparingByKey())
-				.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (oldValue, newValue) -> oldValue,
-						LinkedHashMap::new));
-
-		// Iterates through the data
-		for (Map.Entry<String, WeightPercentPair> entry : sorted.entrySet()) {
-			Label farmName = new Label(entry.getKey());
-			farmName.setUnderline(true);
-
-			// Gets the weight and percent
-			WeightPercentPair pair = dateRangeReport.get(entry.getKey());
-			int weight = pair.getMilkWeight();
-			double percent = pair.getPercent();
-
-			HBox drrBox = new HBox();
-
-			Label milkWeight = new Label(weight + " lbs   ");
-
-			ProgressBar pb = new ProgressBar();
-			pb.setProgress(percent);
-
-			Label percentage = new Label("  (" + df.format(percent * 100) + "%)");
-
-			// Only displays the percent if the display percentages check box is checked
-			if (displayPercentages) {
-				drrBox.getChildren().addAll(milkWeight, pb, percentage);
-			} else {
-				drrBox.getChildren().add(milkWeight);
-			}
-			column1.getChildren().addAll(farmName, drrBox);
-		}
-		column1.getChildren().add(saveReport);
+		// Only the visible farms get nodes, so a report with many farms displays quickly
+		ReportView reportView = new ReportView(dateRangeReport, displayPercentages);
+		VBox.setVgrow(reportView, Priority.ALWAYS);
+		column1.getChildren().addAll(reportView, saveReport);
+		VBox.setVgrow(column1, Priority.ALWAYS);
 		
 		// Clears and then adds the display data to the center of the GUI
 		center.getChildren().clear();
@@ -1330,8 +1518,57 @@ public class Main extends Application {
 	 */
 	public void dateRangeReportButtonAction(String startDate, String endDate, VBox center) throws FarmNotFoundException,
 			InvalidDateException, StartDateOutOfRangeException, EndDateOutOfRangeException {
-		HashMap<String, WeightPercentPair> dateRangeReport = milkManager.dateRangeReport(startDate, endDate);
-		formatCenterDateRangeReport(center, dateRangeReport, startDate, endDate);
+		// check if start date is after end date
+		MilkDate startDateVerify = new MilkDate(startDate);
+		MilkDate endDateVerify = new MilkDate(endDate);
+
+		if (startDateVerify.compareTo(endDateVerify) > 0)
+			throw new InvalidDateException();
+
+		if (startDateVerify.compareTo(milkManager.minDate) < 0 || startDateVerify.compareTo(milkManager.maxDate) > 0)
+			throw new StartDateOutOfRangeException();
+
+		if (endDateVerify.compareTo(milkManager.maxDate) > 0 || endDateVerify.compareTo(milkManager.minDate) < 0)
+			throw new EndDateOutOfRangeException();
+
+		runReport(() -> milkManager.dateRangeReport(startDate, endDate),
+				dateRangeReport -> formatCenterDateRangeReport(center, dateRangeReport, startDate, endDate));
+	}
+
+	/**
+	 * Computes a report on the report executor and displays it on the GUI thread.
+	 * Starting a report cancels the one that is still running, which interrupts
+	 * the report thread so the report stops and the new one runs next. A
+	 * cancelled report is never displayed, and neither is its failure, so the last
+	 * button pressed always wins and the GUI never waits for a computation
+	 * 
+	 * @param <T>     type of the report
+	 * @param compute computes the report, off the GUI thread
+	 * @param display displays the report, on the GUI thread
+	 */
+	private <T> void runReport(Callable<T> compute, Consumer<T> display) {
+		if (reportTask != null)
+			reportTask.cancel();
+
+		Task<T> task = new Task<T>() {
+			@Override
+			protected T call() throws Exception {
+				return compute.call();
+			}
+		};
+		task.setOnSucceeded(e -> {
+			if (task == reportTask)
+				display.accept(task.getValue());
+		});
+		task.setOnFailed(e -> {
+			task.getException().printStackTrace();
+			if (task == reportTask) {
+				Alert alert = new Alert(AlertType.WARNING, "Error occurred while computing the report", ButtonType.OK);
+				alert.showAndWait();
+			}
+		});
+		reportTask = task;
+		reportExecutor.execute(task);
 	}
 
 	/**
@@ -1418,9 +1655,14 @@ public class Main extends Application {
 	 */
 	private void displayIndividualFarmsButtonAction(String farmID, String year, String displayChoice, VBox Center)
 			throws InvalidDateException {
+		// Check the input here, so the alerts still come from the button handler
+		if (farmID == null || displayChoice == null)
+			throw new NullPointerException();
+		Integer.parseInt(year);
+
 		// Get the milk weight data
-		HashMap<Integer, WeightPercentPair> farmData = milkManager.farmReport(farmID, year);
-		formatCenterDisplayIndividualFarms(Center, farmData, farmID, year, displayChoice);
+		runReport(() -> milkManager.farmReport(farmID, year),
+				farmData -> formatCenterDisplayIndividualFarms(Center, farmData, farmID, year, displayChoice));
 	}
 
 	/**
@@ -1553,16 +1795,21 @@ public class Main extends Application {
 	 * @param ceneter panel to use
 	 */
 	private void displayForAllFarmsButtonAction(String month, String year, String displayChoice, VBox Center) {
-		// Get the farm data
-		HashMap<String, WeightPercentPair> farmData = null;
+		// Check the input here, so the alerts still come from the button handler
+		if (month == null || displayChoice == null)
+			throw new NullPointerException();
+		Integer.parseInt(year);
 		try {
-			farmData = milkManager.monthlyReport(month, year);
+			MilkManager.parseMonth(month);
 		} catch (InvalidDateException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+			return;
 		}
 
-		formatCenterDisplayForAllFarms(Center, farmData, month, year, displayChoice);
+		// Get the farm data
+		runReport(() -> milkManager.monthlyReport(month, year),
+				farmData -> formatCenterDisplayForAllFarms(Center, farmData, month, year, displayChoice));
 	}
 
 	/**
@@ -6,6 +6,10 @@ package application;
  *
  */
 public class MilkDate {
+	// dates are written with four digit years
+	private static final int MAX_YEAR = 9999;
+	private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
 	private int year;
 	private int month;
 	private int day;
@@ -25,6 +29,152 @@ public class MilkDate {
 		this.year = Integer.parseInt(dateComponents[0]);
 		this.month = Integer.parseInt(dateComponents[1]);
 		this.day = Integer.parseInt(dateComponents[2]);
+
+		if (!isValid(year, month, day))
+			throw new InvalidDateException();
+	}
+
+	/**
+	 * constructor for a MilkDate object from its already parsed fields, which
+	 * must form a valid date
+	 * @param year year of the date
+	 * @param month month of the date
+	 * @param day day of the date
+	 */
+	public MilkDate(int year, int month, int day) {
+		this.year = year;
+		this.month = month;
+		this.day = day;
+	}
+
+	/**
+	 * creates the MilkDate for a packed date key
+	 * @param key packed date key, see toKey
+	 * @return MilkDate for the key
+	 */
+	public static MilkDate fromKey(int key) {
+		return new MilkDate(yearOf(key), monthOf(key), dayOf(key));
+	}
+
+	/**
+	 * checks that the fields form a calendar date that can be packed into a key
+	 * @param year year of the date
+	 * @param month month of the date
+	 * @param day day of the date
+	 * @return true if the date is valid
+	 */
+	public static boolean isValid(int year, int month, int day) {
+		if (year < 0 || year > MAX_YEAR || month < 1 || month > 12 || day < 1)
+			return false;
+		if (month == 2 && day == 29)
+			return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+		return day <= DAYS_IN_MONTH[month - 1];
+	}
+
+	/**
+	 * packs a date into an int key laid out as year, month, day bit fields. Keys
+	 * compare in the same order as the dates they represent, and the year or
+	 * month of a key is read back with a shift
+	 * @param year year of the date
+	 * @param month month of the date
+	 * @param day day of the date
+	 * @return packed date key
+	 */
+	public static int toKey(int year, int month, int day) {
+		return (year << 9) | (month << 5) | day;
+	}
+
+	/**
+	 * gets the packed date key of this MilkDate
+	 * @return packed date key
+	 */
+	public int toKey() {
+		return toKey(year, month, day);
+	}
+
+	/**
+	 * gets the number of days in a month
+	 * @param year year of the month
+	 * @param month month to check
+	 * @return number of days in the month
+	 */
+	public static int daysInMonth(int year, int month) {
+		if (month == 2 && year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))
+			return 29;
+		return DAYS_IN_MONTH[month - 1];
+	}
+
+	/**
+	 * converts a packed date key to the number of days since 1970-1-1, so
+	 * consecutive dates get consecutive numbers
+	 * @param key packed date key
+	 * @return epoch day of the key
+	 */
+	public static int toEpochDay(int key) {
+		int year = yearOf(key);
+		int month = monthOf(key);
+		if (month <= 2)
+			year--;
+		int era = (year >= 0 ? year : year - 399) / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOf(key) - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * converts a number of days since 1970-1-1 back to a packed date key
+	 * @param epochDay epoch day to convert
+	 * @return packed date key of the day
+	 */
+	public static int fromEpochDay(int epochDay) {
+		int days = epochDay + 719468;
+		int era = (days >= 0 ? days : days - 146096) / 146097;
+		int dayOfEra = days - era * 146097;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+		int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return toKey(year, month, day);
+	}
+
+	/**
+	 * gets the year of a packed date key
+	 * @param key packed date key
+	 * @return year of the key
+	 */
+	public static int yearOf(int key) {
+		return key >>> 9;
+	}
+
+	/**
+	 * gets the month of a packed date key
+	 * @param key packed date key
+	 * @return month of the key
+	 */
+	public static int monthOf(int key) {
+		return (key >>> 5) & 15;
+	}
+
+	/**
+	 * gets the day of a packed date key
+	 * @param key packed date key
+	 * @return day of the key
+	 */
+	public static int dayOf(int key) {
+		return key & 31;
+	}
+
+	/**
+	 * gets the year and month of a packed date key as one int, two keys are in
+	 * the same month exactly when these are equal
+	 * @param key packed date key
+	 * @return year and month part of the key
+	 */
+	public static int yearMonthOf(int key) {
+		return key >>> 5;
 	}
 
 	/**
@@ -72,42 +222,69 @@ public class MilkDate {
 		return 0;
 	}
 
+	/**
+	 * compares this MilkDate with a date given by its fields, without creating a
+	 * MilkDate for it
+	 * @param year year of the other date
+	 * @param month month of the other date
+	 * @param day day of the other date
+	 * @return 0 if the two dates are the same, positive number if the current object is more recent, negative number otherwise
+	 */
+	public int compareTo(int year, int month, int day) {
+		if (this.year != year)
+			return this.year > year ? 1 : -1;
+		if (this.month != month)
+			return this.month > month ? 1 : -1;
+		if (this.day != day)
+			return this.day > day ? 1 : -1;
+		return 0;
+	}
+
 	/**
 	 * converts integer version of month to string representation @return= returns
 	 * string representation of month
 	 */
 	public String monthToString() {
-		if (this.getMonth() == 1)
+		return monthToString(this.getMonth());
+	}
+
+	/**
+	 * converts integer version of a month to string representation
+	 * @param month month to convert
+	 * @return string representation of month
+	 */
+	public static String monthToString(int month) {
+		if (month == 1)
 			return "January";
 
-		if (this.getMonth() == 2)
+		if (month == 2)
 			return "February";
 
-		if (this.getMonth() == 3)
+		if (month == 3)
 			return "March";
 
-		if (this.getMonth() == 4)
+		if (month == 4)
 			return "April";
 
-		if (this.getMonth() == 5)
+		if (month == 5)
 			return "May";
 
-		if (this.getMonth() == 6)
+		if (month == 6)
 			return "June";
 
-		if (this.getMonth() == 7)
+		if (month == 7)
 			return "July";
 
-		if (this.getMonth() == 8)
+		if (month == 8)
 			return "August";
 
-		if (this.getMonth() == 9)
+		if (month == 9)
 			return "September";
 
-		if (this.getMonth() == 10)
+		if (month == 10)
 			return "October";
 
-		if (this.getMonth() == 11)
+		if (month == 11)
 			return "Novemeber";
 
 		return "Decemeber";
@@ -1,33 +1,114 @@
 package application;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.Month;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
 
 /**
- * MilkManager class that manages farms and their data
+ * MilkManager class that manages farms and their data. It can be used from
+ * several threads. Ingest and edits take a write lock, files are parsed before
+ * the lock is taken so only merging the parsed rows holds it. Every write ends
+ * by publishing an immutable snapshot of the store, and reports read the latest
+ * snapshot without any lock, so a report sees one consistent version of the
+ * data while writers carry on. A snapshot is reclaimed by the garbage collector
+ * once no report holds it any more
  * @author richardwang
  *
  */
 public class MilkManager {
-	private HashMap<String, Farm> map;
-	MilkDate minDate = null;
-	MilkDate maxDate = null;
+	private MilkStore store;
+	private final StampedLock lock = new StampedLock(); // write lock for ingest and edits
+	private volatile MilkStore snapshot; // version of the store that reports read, replaced by every write
+	volatile MilkDate minDate = null;
+	volatile MilkDate maxDate = null;
+	private int ingestThreads = Runtime.getRuntime().availableProcessors();
+
+	private int reportParallelism = Runtime.getRuntime().availableProcessors();
+	private int parallelReportThreshold = 1024;
+	// farms a report kernel runs over between two checks for a cancelled report
+	private static final int CANCEL_CHECK_INTERVAL = 256;
+	private ForkJoinPool reportPool;
+	private ReportCache cache = new ReportCache(DEFAULT_CACHE_CAPACITY);
+	private EditJournal journal; // write-ahead log of the edits, null if edits are only kept in memory
+	// replayed edits of farms that were not loaded when the journal was opened, farm ID
+	// to date to weight or MISSING for a removal, applied once an ingest adds the farm
+	private HashMap<String, HashMap<Integer, Integer>> deferredEdits = new HashMap<>();
+
+	// dimension sets kept up to date by ingest and edits, the sorted lists are
+	// rebuilt only after a year, month or farm is added or removed
+	private TreeMap<Integer, Integer> monthReadings = new TreeMap<>(); // year * 12 + month - 1 to number of readings
+	private TreeSet<String> farmIDs = new TreeSet<>();
+	private volatile ArrayList<String> yearList;
+	private volatile ArrayList<String> monthList;
+	private volatile ArrayList<String> farmList;
+
+	// bytes of every tailed file that have been ingested, always ending after a new line
+	private HashMap<Path, Long> tailOffsets = new HashMap<>();
+
+	// reports the cache holds until setReportCacheCapacity changes it
+	static final int DEFAULT_CACHE_CAPACITY = 64;
+
+	// bounds for the segments a memory mapped file is split into
+	private static final long MIN_SEGMENT_SIZE = 1 << 23;
+	private static final long MAX_SEGMENT_SIZE = 1 << 30;
+
+	// rows an ingest worker parses before it writes them to the store
+	private static final int WRITE_CHUNK = 4096;
+
+	// bytes of a mapped buffer parsed between two checks for an interrupt
+	private static final int PARSE_WINDOW = 1 << 20;
 
 	public MilkManager() {
-		this.map = new HashMap<>();
+		this(new FarmStore());
+	}
+
+	/**
+	 * constructor for a manager on top of the given storage backend, for example a
+	 * ColumnarStore instead of the default FarmStore
+	 * @param store empty store to keep the readings in
+	 */
+	public MilkManager(MilkStore store) {
+		this.store = store;
+		snapshot = store.snapshot();
 	}
 
 	/**
@@ -62,43 +143,859 @@ public class MilkManager {
 	 * @throws ParseException if file cannot be parsed
 	 */
 	public void constructMap(List<File> file) throws IOException, ParseException {
-		for (int i = 0; i < file.size(); i++) {
-			String row = null;
-			BufferedReader br = new BufferedReader(new FileReader(file.get(i)));
-			while ((row = br.readLine()) != null) {
-				String[] data = row.split(",");
-				MilkDate date;
+		constructMap(file, false);
+	}
+
+	/**
+	 * constructs the data set given a list of files, optionally parsing each file
+	 * on its own worker thread. Parallel workers write their rows straight into
+	 * the data set while they parse, later files still overwrite earlier entries
+	 * for the same farm and date exactly like the serial path
+	 * @param file list of files that gets parsed
+	 * @param parallel true to parse the files concurrently
+	 * @throws IOException if reading line has error
+	 * @throws ParseException if file cannot be parsed
+	 */
+	public void constructMap(List<File> file, boolean parallel) throws IOException, ParseException {
+		constructMap(file, parallel, null);
+	}
+
+	/**
+	 * constructs the data set given a list of files like constructMap(file,
+	 * parallel), reporting the rows and bytes read so far to a listener. The
+	 * ingest can be cancelled by interrupting the calling thread, it then stops
+	 * with an InterruptedIOException and keeps the rows added before that
+	 * @param file list of files that gets parsed
+	 * @param parallel true to parse the files concurrently
+	 * @param listener receives the progress, or null
+	 * @throws IOException if reading line has error or the ingest was interrupted
+	 * @throws ParseException if file cannot be parsed
+	 */
+	public void constructMap(List<File> file, boolean parallel, IngestListener listener)
+			throws IOException, ParseException {
+		Progress progress = listener == null ? null : new Progress(listener, file);
+		List<Source> sources = new ArrayList<>();
+		for (File f : file)
+			sources.add(worker -> worker.readFile(f, progress));
+		ingest(sources, parallel);
+	}
+
+	/**
+	 * constructs the data set given a list of files by memory mapping them instead
+	 * of reading them through a FileReader. Large files are split at new line
+	 * boundaries into segments that are scanned by separate workers, so several
+	 * cores can parse one big file together. Later segments win over earlier ones
+	 * in file order, the result is the same as the serial path
+	 * @param file list of files that gets parsed
+	 * @throws IOException if mapping or reading a file has an error
+	 */
+	public void constructMapMapped(List<File> file) throws IOException {
+		constructMapMapped(file, null);
+	}
+
+	/**
+	 * constructs the data set given a list of files like constructMapMapped(file),
+	 * reporting the rows and bytes parsed so far to a listener. The ingest can be
+	 * cancelled by interrupting the calling thread like constructMap
+	 * @param file list of files that gets parsed
+	 * @param listener receives the progress, or null
+	 * @throws IOException if mapping or reading a file has an error or the ingest
+	 *                     was interrupted
+	 */
+	public void constructMapMapped(List<File> file, IngestListener listener) throws IOException {
+		Progress progress = listener == null ? null : new Progress(listener, file);
+		List<FileChannel> channels = new ArrayList<>();
+		try {
+			List<Source> sources = new ArrayList<>();
+			for (File f : file) {
+				FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+				channels.add(channel);
+
+				long size = channel.size();
+				long segmentSize = Math.min(MAX_SEGMENT_SIZE,
+						Math.max(MIN_SEGMENT_SIZE, (size + ingestThreads - 1) / ingestThreads));
+
+				long start = 0;
+				while (start < size) {
+					long end = start + segmentSize < size ? nextRowStart(channel, start + segmentSize) : size;
+					long segmentStart = start;
+					sources.add(worker -> worker.readSegment(channel, segmentStart, end - segmentStart, progress));
+					start = end;
+				}
+			}
+			ingest(sources, true);
+		} catch (ClosedByInterruptException e) {
+			// an interrupt while the files are split closes the channel being read
+			throw new InterruptedIOException();
+		} finally {
+			for (FileChannel channel : channels)
+				channel.close();
+		}
+	}
+
+	/**
+	 * checks if a list of files has a file large enough for constructMapMapped to
+	 * split it into segments, which several workers then parse at once. Other
+	 * files are parsed as fast by constructMap
+	 * @param file list of files to parse
+	 * @return true if constructMapMapped should parse the files
+	 */
+	public static boolean preferMapped(List<File> file) {
+		for (File f : file) {
+			if (f.length() >= 2 * MIN_SEGMENT_SIZE)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * ingests the rows appended to files since they were last tailed, for files
+	 * that are still being written to. The first call for a file reads all of it,
+	 * later calls start at the remembered byte offset. A row is only ingested once
+	 * its new line has been written, so a row that is half written stays for the
+	 * next call. A file that got shorter is read again from the start
+	 * @param file list of files to tail
+	 * @throws IOException if reading a file has an error
+	 */
+	public void tail(List<File> file) throws IOException {
+		// tails run one at a time, so their rows are added in the order they were read
+		synchronized (tailOffsets) {
+			ingest(Collections.singletonList(worker -> {
+				for (File f : file)
+					tailFile(f.toPath().toAbsolutePath(), worker);
+			}), false);
+		}
+	}
+
+	/**
+	 * parses the complete rows between a file's tail offset and its end and moves
+	 * the offset past them
+	 * @param path absolute path of the file
+	 * @param worker worker to parse with
+	 * @throws IOException if reading the file has an error
+	 */
+	private void tailFile(Path path, IngestWorker worker) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long offset = tailOffsets.getOrDefault(path, 0L);
+			if (size < offset)
+				offset = 0;
+
+			while (offset < size) {
+				int length = (int) Math.min(size - offset, MAX_SEGMENT_SIZE);
+				int parsed = worker.readRows(channel.map(FileChannel.MapMode.READ_ONLY, offset, length), length,
+						false, null);
+				if (parsed == 0)
+					break;
+				offset += parsed;
+			}
+			tailOffsets.put(path, offset);
+		}
+	}
+
+	/**
+	 * saves the readings and date range to a binary snapshot that loadSnapshot can
+	 * restore without parsing the CSV files again
+	 * @param file snapshot file to write, replaced if it exists
+	 * @throws IOException if writing the file has an error
+	 */
+	public void saveSnapshot(File file) throws IOException {
+		// the read lock keeps the date range in step with the published snapshot
+		long stamp = lock.readLock();
+		try {
+			MilkSnapshot.write(snapshot, minDate, maxDate, file);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * adds the readings of a binary snapshot to the data set, like constructMap
+	 * does with CSV files. The snapshot is memory mapped and its checksum is
+	 * checked before any reading is added
+	 * @param file snapshot file written by saveSnapshot
+	 * @throws IOException if the file cannot be read or is not a valid snapshot
+	 */
+	public void loadSnapshot(File file) throws IOException {
+		ingest(Collections.singletonList(worker -> MilkSnapshot.read(file, worker)), false);
+	}
+
+	/**
+	 * finds where the row containing the given position ends
+	 * @param channel file to search
+	 * @param position position inside the file
+	 * @return position after the next new line, or the file size if there is none
+	 * @throws IOException if reading the file has an error
+	 */
+	private static long nextRowStart(FileChannel channel, long position) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(4096);
+		while (true) {
+			buf.clear();
+			int read = channel.read(buf, position);
+			if (read <= 0)
+				return channel.size();
+			for (int i = 0; i < read; i++) {
+				if (buf.get(i) == '\n')
+					return position + i + 1;
+			}
+			position += read;
+		}
+	}
+
+	/**
+	 * runs the sources of an ingest and writes their rows straight into the store,
+	 * holding the write lock until every source has stopped. In parallel up to
+	 * ingestThreads workers parse sources at once, otherwise the sources are parsed
+	 * one after the other on the calling thread. Workers only lock the shard of
+	 * farms they write to, and a reading that several sources have keeps the value
+	 * of the last of them in list order, so both ways give the same result. If a
+	 * source fails or the ingest is interrupted the other sources are stopped, the
+	 * rows written before that stay and an interrupt stays set
+	 * @param sources files, segments or snapshots to parse, in order
+	 * @param parallel true to parse the sources concurrently
+	 * @throws IOException if a source failed to read its input
+	 */
+	private void ingest(List<Source> sources, boolean parallel) throws IOException {
+		long stamp = writeLock();
+		Ingest ingest = new Ingest();
+		try {
+			if (!parallel || sources.size() < 2 || ingestThreads < 2) {
+				IngestWorker worker = new IngestWorker(ingest);
+				for (int i = 0; i < sources.size(); i++)
+					worker.read(i, sources.get(i));
+			}
+
+			else
+				ingestParallel(ingest, sources);
+		} finally {
+			afterIngest(ingest);
+			unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * parses the sources of an ingest on the worker threads. The workers write to
+	 * the store, so all of them are waited for before it returns
+	 * @param ingest ingest the workers write to
+	 * @param sources sources to parse, in order
+	 * @throws IOException if a source failed to read its input or the ingest was
+	 *                     interrupted
+	 */
+	private void ingestParallel(Ingest ingest, List<Source> sources) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(ingestThreads, sources.size()));
+		List<Future<Void>> parts = new ArrayList<>();
+		for (int i = 0; i < sources.size(); i++) {
+			int order = i;
+			Source source = sources.get(i);
+			parts.add(pool.submit(() -> {
 				try {
-					date = new MilkDate(data[0]);
-					Integer.parseInt(data[2]);
+					new IngestWorker(ingest).read(order, source);
+				} catch (IOException | RuntimeException | Error e) {
+					// a failed source stops the others
+					pool.shutdownNow();
+					throw e;
+				}
+				return null;
+			}));
+		}
+		pool.shutdown();
+
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (pool.awaitTermination(1, TimeUnit.SECONDS))
+					break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+				pool.shutdownNow();
+			}
+		}
 
-					if (minDate == null && maxDate == null && i == 0) {
-						minDate = date;
-						maxDate = date;
-					}
+		// the first failure of a source, rather than the interrupts it caused
+		Throwable failure = null;
+		for (Future<Void> part : parts) {
+			if (!part.isDone() || part.isCancelled())
+				continue;
+			try {
+				part.get();
+			} catch (ExecutionException e) {
+				if (failure == null || failure instanceof InterruptedIOException)
+					failure = e.getCause();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure != null)
+			throw (Error) failure;
+	}
+
+	/**
+	 * sets how many worker threads the parallel ingestion mode may use
+	 * @param threads number of worker threads, at least 1
+	 */
+	public void setIngestThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException();
+		ingestThreads = threads;
+	}
 
-					else if (date.compareTo(minDate) < 0)
-						minDate = date;
+	/**
+	 * takes the write lock for a change of the store. The report cache refuses
+	 * reports computed while the change is under way, since they may come from the
+	 * snapshot before it
+	 * @return stamp to pass to unlockWrite
+	 */
+	private long writeLock() {
+		long stamp = lock.writeLock();
+		cache.beginWrite();
+		return stamp;
+	}
 
-					else if (date.compareTo(maxDate) > 0)
-						maxDate = date;
+	/**
+	 * publishes a snapshot of the changed store and releases the write lock. The
+	 * store decides how much of its pending work the snapshot carries, so a small
+	 * edit does not rewrite the whole store
+	 * @param stamp stamp returned by writeLock
+	 */
+	private void unlockWrite(long stamp) {
+		try {
+			snapshot = store.snapshot();
+		} finally {
+			cache.endWrite();
+			lock.unlockWrite(stamp);
+		}
+	}
 
-					// if the farm is already in the database
-					if (map.containsKey(data[1])) {
-						map.get(data[1]).addMilk(data[0], Integer.parseInt(data[2]));
+	/**
+	 * updates the date range and dimension sets and removes the cached reports that
+	 * the rows of an ingest can change
+	 * @param ingest ingest whose rows were added to the farm map
+	 */
+	private void afterIngest(Ingest ingest) {
+		if (ingest.minDate <= ingest.maxDate) {
+			MilkDate first = MilkDate.fromKey(ingest.minDate);
+			MilkDate last = MilkDate.fromKey(ingest.maxDate);
+			if (minDate == null || first.compareTo(minDate) < 0)
+				minDate = first;
+			if (maxDate == null || last.compareTo(maxDate) > 0)
+				maxDate = last;
+		}
+
+		if (!ingest.addedFarms.isEmpty()) {
+			farmIDs.addAll(ingest.addedFarms);
+			farmList = null;
+			cache.invalidateAllFarmReports();
+		}
+
+		// only the farms and months the ingest wrote to can change their number of readings
+		TreeSet<Integer> months = new TreeSet<>();
+		HashMap<Integer, HashSet<String>> years = new HashMap<>(); // farms the ingest wrote to by year, as farm reports are cached
+		for (int farm = 0; farm < ingest.writes.length; farm++) {
+			if (ingest.writes[farm] == null)
+				continue;
+			int handle = farm;
+			String farmID = store.idOf(farm);
+			ingest.writes[farm].forEachMonth(yearMonth -> {
+				int year = yearMonth / 12;
+				int month = yearMonth % 12 + 1;
+				int before = handle < ingest.before.farmCount() ? ingest.before.getReadingCount(handle, year, month) : 0;
+				addMonthReadings(year, month, store.getReadingCount(handle, year, month) - before);
+				months.add(yearMonth);
+				years.computeIfAbsent(year, y -> new HashSet<>()).add(farmID);
+			});
+		}
+		for (int yearMonth : months)
+			cache.invalidateMonth(yearMonth / 12, yearMonth % 12 + 1, years.get(yearMonth / 12));
+
+		// replayed edits of a farm that was not loaded when the journal was opened
+		if (!deferredEdits.isEmpty()) {
+			for (String farmID : ingest.addedFarms) {
+				HashMap<Integer, Integer> edits = deferredEdits.remove(farmID);
+				if (edits != null)
+					applyJournaledEdits(store.handleOf(farmID), farmID, edits);
+			}
+		}
+	}
+
+	/**
+	 * Private helper that applies the replayed edits of a farm on top of its
+	 * readings
+	 * 
+	 * @param farm   handle of the farm
+	 * @param farmID ID of the farm
+	 * @param edits  last journaled weight of every edited date, MISSING for a removal
+	 */
+	private void applyJournaledEdits(int farm, String farmID, HashMap<Integer, Integer> edits) {
+
+		for (Map.Entry<Integer, Integer> edit : edits.entrySet()) {
+			int date = edit.getKey();
+			int milkWeight = edit.getValue();
+			int current = store.getMilkWeight(farm, date);
+			if (current == milkWeight)
+				continue;
+
+			if (milkWeight != MilkStore.MISSING)
+				applyAdd(farm, farmID, date, milkWeight);
+			else {
+				try {
+					applyRemove(farm, farmID, date);
+				} catch (MissingDataException e) {
+					// the farm has a reading on the date, checked above
+				}
+			}
+		}
+	}
+
+	/**
+	 * records a change in the number of readings of a month, marking the year and
+	 * month lists stale when a month gains its first or loses its last reading
+	 * @param year year of the month
+	 * @param month month that changed
+	 * @param change change in the number of readings
+	 */
+	private void addMonthReadings(int year, int month, int change) {
+		if (change == 0)
+			return;
+
+		int yearMonth = year * 12 + month - 1;
+		int readings = monthReadings.getOrDefault(yearMonth, 0) + change;
+		if (readings == 0) {
+			monthReadings.remove(yearMonth);
+			yearList = null;
+			monthList = null;
+		}
+
+		else if (monthReadings.put(yearMonth, readings) == null) {
+			yearList = null;
+			monthList = null;
+		}
+	}
+
+	/**
+	 * One input of an ingest, a file, a segment of a file or a snapshot
+	 */
+	private interface Source {
+		/**
+		 * parses the input
+		 * @param worker worker that parses the input and writes its rows
+		 * @throws IOException if reading the input has an error
+		 */
+		void read(IngestWorker worker) throws IOException;
+	}
+
+	/**
+	 * State of one ingest that its workers share. Workers write their rows to the
+	 * manager's store in chunks and lock only the shards of farms a chunk writes
+	 * to, so workers writing to different shards run at once. Adding a farm can
+	 * grow the store's arrays, so it waits until no chunk is being written. For
+	 * every farm it records the days the ingest wrote and which source wrote them,
+	 * so a reading that several sources have keeps the value of the last source
+	 * whatever order the workers get to it in
+	 */
+	private class Ingest {
+		private ReentrantLock[] shardLocks; // shard farm handle % shards of the store
+		private ReentrantReadWriteLock farmLock = new ReentrantReadWriteLock(); // read while writing, write while adding a farm
+		private FarmWrites[] writes; // days written to each farm by handle, guarded by the farm's shard lock
+		private ArrayList<String> addedFarms = new ArrayList<>(); // farms that were not in the store yet
+		private MilkStore before = snapshot; // the store as it was when the ingest started
+		private int minDate = Integer.MAX_VALUE; // packed date keys of the first and last ingested dates
+		private int maxDate = -1;
+
+		Ingest() {
+			shardLocks = new ReentrantLock[store.shards()];
+			for (int shard = 0; shard < shardLocks.length; shard++)
+				shardLocks[shard] = new ReentrantLock();
+			writes = new FarmWrites[Math.max(16, store.farmCount())];
+		}
+
+		/**
+		 * gets the handle of a farm, adding the farm to the store if it is new
+		 * @param farmID ID of the farm
+		 * @return handle of the farm
+		 */
+		int handleOf(String farmID) {
+			farmLock.readLock().lock();
+			try {
+				int farm = store.handleOf(farmID);
+				if (farm >= 0)
+					return farm;
+			} finally {
+				farmLock.readLock().unlock();
+			}
+
+			farmLock.writeLock().lock();
+			try {
+				int farm = store.handleOf(farmID);
+				if (farm < 0) {
+					farm = store.addFarm(farmID);
+					addedFarms.add(farmID);
+					if (farm >= writes.length)
+						writes = Arrays.copyOf(writes, Math.max(writes.length * 2, farm + 1));
+				}
+				return farm;
+			} finally {
+				farmLock.writeLock().unlock();
+			}
+		}
+
+		/**
+		 * writes the rows of a chunk that fall into one shard, holding the shard's
+		 * lock. The caller holds the read lock of farmLock
+		 * @param shard shard the rows fall into
+		 * @param source order of the source the rows come from
+		 * @param chunk rows of the chunk
+		 * @param order indexes of the chunk's rows sorted by shard, or null for all rows
+		 * @param from first entry of order to write
+		 * @param to entry of order after the last one to write
+		 */
+		void write(int shard, int source, IngestWorker chunk, int[] order, int from, int to) {
+			ReentrantLock shardLock = shardLocks[shard];
+			shardLock.lock();
+			try {
+				for (int n = from; n < to; n++) {
+					int i = order == null ? n : order[n];
+					int farm = chunk.farms[i];
+					FarmWrites farmWrites = writes[farm];
+					if (farmWrites == null) {
+						farmWrites = new FarmWrites();
+						writes[farm] = farmWrites;
 					}
+					if (farmWrites.claim(source, chunk.dates[i]))
+						store.addMilk(farm, chunk.dates[i], chunk.weights[i]);
+				}
+			} finally {
+				shardLock.unlock();
+			}
+		}
+
+		/**
+		 * widens the date range of the ingest
+		 * @param first packed date key of a worker's first date
+		 * @param last packed date key of a worker's last date
+		 */
+		synchronized void dates(int first, int last) {
+			minDate = Math.min(minDate, first);
+			maxDate = Math.max(maxDate, last);
+		}
+	}
+
+	/**
+	 * Parses sources of an ingest one at a time and writes their rows to the store
+	 * in chunks. Farm IDs are looked up by the index the parser gives them, so a
+	 * farm is only looked up by ID the first time the worker sees it
+	 */
+	private class IngestWorker implements MilkRowParser.RowHandler, MilkSnapshot.Loader {
+		private Ingest ingest;
+		private MilkRowParser parser = new MilkRowParser();
+		private int[] parsedFarms = new int[16]; // store handle + 1 by the parser's farm ID index, 0 if not looked up
+		private int source; // order of the source being parsed
+
+		// rows parsed but not written to the store yet
+		private int[] farms = new int[WRITE_CHUNK];
+		private int[] dates = new int[WRITE_CHUNK];
+		private int[] weights = new int[WRITE_CHUNK];
+		private int buffered;
+		private int[] order = new int[WRITE_CHUNK]; // rows sorted by shard
+		private int[] shardStart; // first entry of order of every shard
+
+		private int minDate = Integer.MAX_VALUE;
+		private int maxDate = -1;
+		private long rows; // rows parsed since the last progress report
+
+		IngestWorker(Ingest ingest) {
+			this.ingest = ingest;
+			shardStart = new int[ingest.shardLocks.length + 1];
+		}
 
-					// if a new farm is being added
-					else {
-						Farm farm = new Farm(data[0], data[1], Integer.parseInt(data[2]));
-						map.put(data[1], farm);
+		/**
+		 * parses a source and writes all of its rows, also the ones parsed before a
+		 * failure
+		 * @param source order of the source, later sources win over earlier ones
+		 * @param input the source
+		 * @throws IOException if reading the source has an error
+		 */
+		void read(int source, Source input) throws IOException {
+			this.source = source;
+			try {
+				input.read(this);
+			} finally {
+				flush();
+				ingest.dates(minDate, maxDate);
+			}
+		}
+
+		/**
+		 * parses every valid row of a file, skipping rows with an invalid date or
+		 * weight. The file is read in chunks and the read stops once the thread is
+		 * interrupted
+		 * @param file file to parse
+		 * @param progress progress of the whole ingest, or null if nobody listens
+		 * @throws IOException if reading line has error
+		 */
+		void readFile(File file, Progress progress) throws IOException {
+			try (InputStream in = new FilterInputStream(new FileInputStream(file)) {
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (Thread.currentThread().isInterrupted())
+						throw new InterruptedIOException();
+					int read = super.read(b, off, len);
+					if (progress != null)
+						progress.report(IngestWorker.this, read);
+					return read;
+				}
+			}) {
+				parser.parse(in, this);
+			}
+		}
+
+		/**
+		 * memory maps a segment of a file and parses every valid row in it
+		 * @param channel file to map
+		 * @param start position of the first row of the segment
+		 * @param length length of the segment, ending at a row boundary
+		 * @param progress progress of the whole ingest, or null if nobody listens
+		 * @throws IOException if mapping the file has an error or the thread was
+		 *                     interrupted
+		 */
+		void readSegment(FileChannel channel, long start, long length, Progress progress) throws IOException {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			readRows(buf, (int) length, true, progress);
+		}
+
+		/**
+		 * parses the complete rows at the start of a buffer window by window,
+		 * stopping between two windows once the thread is interrupted
+		 * @param buf buffer holding the rows
+		 * @param length number of bytes in the buffer
+		 * @param last true if the buffer ends the input, so a last row without a new
+		 *             line is complete
+		 * @param progress progress of the whole ingest, or null if nobody listens
+		 * @return number of bytes parsed, up to and including the last new line
+		 * @throws InterruptedIOException if the thread was interrupted
+		 */
+		int readRows(ByteBuffer buf, int length, boolean last, Progress progress) throws InterruptedIOException {
+			int parsed = 0;
+			while (parsed < length) {
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedIOException();
+				int end = (int) Math.min(length, (long) parsed + PARSE_WINDOW);
+				int next = parser.parse(buf, parsed, end, last && end == length, this);
+
+				// a row longer than a window is parsed with the rest of the buffer
+				if (next == parsed && end < length)
+					next = parser.parse(buf, parsed, length, last, this);
+				if (next == parsed)
+					break;
+				if (progress != null)
+					progress.report(this, next - parsed);
+				parsed = next;
+			}
+			return parsed;
+		}
+
+		@Override
+		public void row(int year, int month, int day, int farm, int milkWeight) {
+			rows++;
+
+			// the farm is looked up by ID only the first time the parser sees it
+			int target = farm < parsedFarms.length ? parsedFarms[farm] - 1 : -1;
+			if (target < 0) {
+				target = farm(parser.getFarmID(farm));
+				if (farm >= parsedFarms.length)
+					parsedFarms = Arrays.copyOf(parsedFarms, Math.max(parsedFarms.length * 2, farm + 1));
+				parsedFarms[farm] = target + 1;
+			}
+			reading(target, MilkDate.toKey(year, month, day), milkWeight);
+		}
+
+		@Override
+		public void dates(int minDate, int maxDate) {
+			if (minDate >= 0)
+				this.minDate = Math.min(this.minDate, minDate);
+			if (maxDate >= 0)
+				this.maxDate = Math.max(this.maxDate, maxDate);
+		}
+
+		@Override
+		public int farm(String farmID) {
+			return ingest.handleOf(farmID);
+		}
+
+		@Override
+		public void reading(int farm, int date, int milkWeight) {
+			if (date < minDate)
+				minDate = date;
+			if (date > maxDate)
+				maxDate = date;
+
+			farms[buffered] = farm;
+			dates[buffered] = date;
+			weights[buffered] = milkWeight;
+			if (++buffered == WRITE_CHUNK)
+				flush();
+		}
+
+		/**
+		 * writes the buffered rows to the store one shard at a time, keeping their
+		 * order within a shard. Workers start at different shards so they rarely
+		 * wait for each other
+		 */
+		private void flush() {
+			if (buffered == 0)
+				return;
+
+			int shards = ingest.shardLocks.length;
+			ingest.farmLock.readLock().lock();
+			try {
+				if (shards == 1)
+					ingest.write(0, source, this, null, 0, buffered);
+
+				else {
+					Arrays.fill(shardStart, 0);
+					for (int i = 0; i < buffered; i++)
+						shardStart[farms[i] % shards + 1]++;
+					for (int shard = 0; shard < shards; shard++)
+						shardStart[shard + 1] += shardStart[shard];
+					int[] next = Arrays.copyOf(shardStart, shards);
+					for (int i = 0; i < buffered; i++)
+						order[next[farms[i] % shards]++] = i;
+
+					for (int n = 0; n < shards; n++) {
+						int shard = (n + source) % shards;
+						if (shardStart[shard] < shardStart[shard + 1])
+							ingest.write(shard, source, this, order, shardStart[shard], shardStart[shard + 1]);
 					}
-				} catch (InvalidDateException e) {
-					continue;
-				} catch (NumberFormatException e) {
-					continue;
 				}
+			} finally {
+				ingest.farmLock.readLock().unlock();
 			}
+			buffered = 0;
+		}
+	}
+
+	/**
+	 * Days of one farm that an ingest wrote, by month, and the sources that wrote
+	 * them. A month that one source wrote keeps that source, once a second source
+	 * writes the month every day of it keeps its own source
+	 */
+	private static class FarmWrites {
+		private int firstMonth; // year * 12 + month - 1 stored at index 0
+		private int[] days; // bit day - 1 set for every day that was written, by month
+		private int[] sources; // source that wrote the month while it is only one
+		private int[][] daySources; // source that wrote every day, -1 for none, by month
+
+		/**
+		 * records that a source writes a reading, unless a later source already
+		 * wrote it
+		 * @param source order of the source
+		 * @param date packed date key of the reading
+		 * @return true if the source may write the reading
+		 */
+		boolean claim(int source, int date) {
+			int index = indexFor(MilkDate.yearOf(date) * 12 + MilkDate.monthOf(date) - 1);
+			int day = MilkDate.dayOf(date) - 1;
+			int[] perDay = daySources[index];
+			if (perDay == null) {
+				if (days[index] == 0 || sources[index] == source) {
+					days[index] |= 1 << day;
+					sources[index] = source;
+					return true;
+				}
+
+				// a second source writes the month
+				perDay = new int[31];
+				for (int d = 0; d < perDay.length; d++)
+					perDay[d] = (days[index] & 1 << d) != 0 ? sources[index] : -1;
+				daySources[index] = perDay;
+			}
+
+			if (perDay[day] > source)
+				return false;
+			perDay[day] = source;
+			days[index] |= 1 << day;
+			return true;
+		}
+
+		/**
+		 * visits every month the ingest wrote to
+		 * @param visitor receives year * 12 + month - 1 of every month
+		 */
+		void forEachMonth(IntConsumer visitor) {
+			for (int index = 0; index < days.length; index++) {
+				if (days[index] != 0)
+					visitor.accept(firstMonth + index);
+			}
+		}
+
+		/**
+		 * finds the index of a month, growing the arrays at either end if the month
+		 * is outside of them
+		 * @param month year * 12 + month - 1
+		 * @return index of the month
+		 */
+		private int indexFor(int month) {
+			if (days == null) {
+				days = new int[12];
+				sources = new int[12];
+				daySources = new int[12][];
+				firstMonth = month;
+				return 0;
+			}
+
+			int index = month - firstMonth;
+			int shift = index < 0 ? Math.max(days.length, -index) : 0;
+			if (index >= days.length || shift > 0) {
+				int capacity = Math.max(days.length * 2, index + 1) + shift;
+				int[] grownDays = new int[capacity];
+				int[] grownSources = new int[capacity];
+				int[][] grownDaySources = new int[capacity][];
+				System.arraycopy(days, 0, grownDays, shift, days.length);
+				System.arraycopy(sources, 0, grownSources, shift, sources.length);
+				System.arraycopy(daySources, 0, grownDaySources, shift, daySources.length);
+				days = grownDays;
+				sources = grownSources;
+				daySources = grownDaySources;
+				firstMonth -= shift;
+				index += shift;
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Row and byte counts of an ingest shared by all of its workers, which report
+	 * every chunk of a file they read to the listener
+	 */
+	private static class Progress {
+		private IngestListener listener;
+		private long totalBytes;
+		private AtomicLong rows = new AtomicLong();
+		private AtomicLong bytes = new AtomicLong();
+
+		Progress(IngestListener listener, List<File> file) {
+			this.listener = listener;
+			for (File f : file)
+				totalBytes += f.length();
+		}
+
+		/**
+		 * reports a chunk read or parsed by a worker
+		 * @param worker worker that read the chunk, its row count is reported and reset
+		 * @param read number of bytes read, -1 at the end of the file
+		 */
+		void report(IngestWorker worker, int read) {
+			// a streamed file reports the rows of its previous chunk with this one
+			listener.progress(rows.addAndGet(worker.rows), bytes.addAndGet(Math.max(read, 0)), totalBytes);
+			worker.rows = 0;
 		}
 	}
 
@@ -118,14 +1015,21 @@ public class MilkManager {
 		if (milkWeight < 0)
 			throw new NegativeMilkWeightException();
 
-		// Check if the farmID is in the database
-		if (map.containsKey(farmID)) {
-			map.get(farmID).addMilk(date.toString(), milkWeight);
-		}
+		long stamp = writeLock();
+		try {
+			// Check if the farmID is in the database
+			int farm = store.handleOf(farmID);
+			if (farm >= 0) {
+				log(EditJournal.ADD, farmID, date.toKey(), milkWeight);
+				applyAdd(farm, farmID, date.toKey(), milkWeight);
+			}
 
-		// If a farm is not found throw an exception
-		else
-			throw new FarmNotFoundException();
+			// If a farm is not found throw an exception
+			else
+				throw new FarmNotFoundException();
+		} finally {
+			unlockWrite(stamp);
+		}
 	}
 
 	/**
@@ -138,14 +1042,270 @@ public class MilkManager {
 	 * @throws MissingDataException 
 	 */
 	public void removeMilk(String farmID, MilkDate date) throws FarmNotFoundException, MissingDataException {
+		long stamp = writeLock();
+		try {
+			// Check if the farmID is in the database
+			int farm = store.handleOf(farmID);
+			if (farm >= 0) {
+				if (store.getMilkWeight(farm, date.toKey()) == MilkStore.MISSING)
+					throw new MissingDataException();
+				log(EditJournal.REMOVE, farmID, date.toKey(), 0);
+				applyRemove(farm, farmID, date.toKey());
+			}
 
-		// Check if the farmID is in the database
-		if (map.containsKey(farmID))
-			map.get(farmID).removeMilk(date.toString());
+			// If a farm is not found throw an exception
+			else
+				throw new FarmNotFoundException();
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
 
-		// If a farm is not found throw an exception
-		else
-			throw new FarmNotFoundException();
+	/**
+	 * Validates and applies a whole correction set, with the same result as one
+	 * addMilk or removeMilk per correction in list order. Nothing is applied if a
+	 * correction fails. The corrections are grouped by farm, so every farm is
+	 * looked up and written once, and the month counts and cached reports are
+	 * updated once per farm and month instead of once per correction
+	 * 
+	 * @param corrections corrections in the order they were made
+	 * @throws FarmNotFoundException       if a farm is not found
+	 * @throws NegativeMilkWeightException if a new weight is negative
+	 * @throws MissingDataException        if a reading to remove does not exist
+	 */
+	public void applyCorrections(List<Correction> corrections)
+			throws FarmNotFoundException, NegativeMilkWeightException, MissingDataException {
+		long stamp = writeLock();
+		try {
+			// old and new weight of every corrected reading, grouped by farm
+			LinkedHashMap<String, LinkedHashMap<Integer, int[]>> farmEdits = new LinkedHashMap<>();
+			HashMap<String, Integer> handles = new HashMap<>();
+			for (Correction correction : corrections) {
+				String farmID = correction.getFarmID();
+				Integer farm = handles.get(farmID);
+				if (farm == null) {
+					farm = store.handleOf(farmID);
+					if (farm < 0)
+						throw new FarmNotFoundException();
+					handles.put(farmID, farm);
+				}
+
+				if (!correction.isRemoval() && correction.getMilkWeight() < 0)
+					throw new NegativeMilkWeightException();
+
+				// a removal has to find the reading, also if an earlier correction added it
+				int date = correction.getDate().toKey();
+				LinkedHashMap<Integer, int[]> edits = farmEdits.computeIfAbsent(farmID, id -> new LinkedHashMap<>());
+				int[] edit = edits.get(date);
+				if (edit == null) {
+					int old = store.getMilkWeight(farm, date);
+					edit = new int[] { old, old };
+					edits.put(date, edit);
+				}
+				if (correction.isRemoval() && edit[1] == MilkStore.MISSING)
+					throw new MissingDataException();
+				edit[1] = correction.getMilkWeight();
+			}
+
+			// journal and write the net change of every farm, counting the readings per month
+			HashMap<Integer, Integer> monthChanges = new HashMap<>(); // year * 12 + month - 1 to change in readings
+			for (Map.Entry<String, LinkedHashMap<Integer, int[]>> farmEdit : farmEdits.entrySet()) {
+				String farmID = farmEdit.getKey();
+				int[] dates = new int[farmEdit.getValue().size()];
+				int[] milkWeights = new int[dates.length];
+				int count = 0;
+				TreeSet<Integer> months = new TreeSet<>();
+				for (Map.Entry<Integer, int[]> edit : farmEdit.getValue().entrySet()) {
+					int date = edit.getKey();
+					int old = edit.getValue()[0];
+					int milkWeight = edit.getValue()[1];
+					if (milkWeight == old)
+						continue;
+
+					if (milkWeight == MilkStore.MISSING)
+						log(EditJournal.REMOVE, farmID, date, 0);
+					else
+						log(EditJournal.ADD, farmID, date, milkWeight);
+					dates[count] = date;
+					milkWeights[count++] = milkWeight;
+
+					int yearMonth = MilkDate.yearOf(date) * 12 + MilkDate.monthOf(date) - 1;
+					months.add(yearMonth);
+					int readings = (milkWeight == MilkStore.MISSING ? 0 : 1) - (old == MilkStore.MISSING ? 0 : 1);
+					monthChanges.merge(yearMonth, readings, Integer::sum);
+				}
+
+				store.setReadings(handles.get(farmID), dates, milkWeights, count);
+				for (int yearMonth : months)
+					cache.invalidate(farmID, yearMonth / 12, yearMonth % 12 + 1);
+			}
+
+			for (Map.Entry<Integer, Integer> change : monthChanges.entrySet())
+				addMonthReadings(change.getKey() / 12, change.getKey() % 12 + 1, change.getValue());
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Private helper that sets a reading and updates the dimension sets and cache
+	 * 
+	 * @param farm       handle of the farm
+	 * @param farmID     ID of the farm
+	 * @param date       packed date key of the reading
+	 * @param milkWeight weight of the reading
+	 */
+	private void applyAdd(int farm, String farmID, int date, int milkWeight) {
+		int added = store.getMilkWeight(farm, date) == MilkStore.MISSING ? 1 : 0;
+		store.addMilk(farm, date, milkWeight);
+		addMonthReadings(MilkDate.yearOf(date), MilkDate.monthOf(date), added);
+		cache.invalidate(farmID, date);
+	}
+
+	/**
+	 * Private helper that removes a reading and updates the dimension sets and cache
+	 * 
+	 * @param farm   handle of the farm
+	 * @param farmID ID of the farm
+	 * @param date   packed date key of the reading
+	 * @throws MissingDataException if the farm has no reading on the date
+	 */
+	private void applyRemove(int farm, String farmID, int date) throws MissingDataException {
+		store.removeMilk(farm, date);
+		addMonthReadings(MilkDate.yearOf(date), MilkDate.monthOf(date), -1);
+		cache.invalidate(farmID, date);
+	}
+
+	/**
+	 * Private helper that writes an edit to the journal ahead of applying it
+	 * 
+	 * @param type       EditJournal.ADD or EditJournal.REMOVE
+	 * @param farmID     ID of the farm
+	 * @param date       packed date key of the reading
+	 * @param milkWeight new weight of an add
+	 */
+	private void log(byte type, String farmID, int date, int milkWeight) {
+		if (journal == null)
+			return;
+		try {
+			journal.append(type, farmID, date, milkWeight);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * opens a write-ahead journal that records every following addMilk and
+	 * removeMilk, after replaying the edits it already holds once on top of the
+	 * data loaded now. Rows ingested later replace journaled edits like they
+	 * replace any other reading. Edits of farms that are not loaded yet are
+	 * applied once, when an ingest adds the farm
+	 * @param file journal file, created if it does not exist
+	 * @throws IOException if the journal cannot be read or written
+	 */
+	public void openJournal(File file) throws IOException {
+		long stamp = writeLock();
+		try {
+			closeJournalLocked();
+
+			// last replayed edit of every reading, farm ID to date to weight or MISSING
+			LinkedHashMap<String, HashMap<Integer, Integer>> replayed = new LinkedHashMap<>();
+			journal = new EditJournal(file, new EditJournal.Replay() {
+				@Override
+				public void addMilk(String farmID, int date, int milkWeight) {
+					replayed.computeIfAbsent(farmID, id -> new HashMap<>()).put(date, milkWeight);
+				}
+
+				@Override
+				public void removeMilk(String farmID, int date) {
+					replayed.computeIfAbsent(farmID, id -> new HashMap<>()).put(date, MilkStore.MISSING);
+				}
+			});
+			for (Map.Entry<String, HashMap<Integer, Integer>> edits : replayed.entrySet()) {
+				int farm = store.handleOf(edits.getKey());
+				if (farm >= 0)
+					applyJournaledEdits(farm, edits.getKey(), edits.getValue());
+				else
+					deferredEdits.put(edits.getKey(), edits.getValue());
+			}
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * forces the journaled edits to disk and closes the journal, later edits are
+	 * only kept in memory
+	 * @throws IOException if the final fsync fails
+	 */
+	public void closeJournal() throws IOException {
+		long stamp = lock.writeLock();
+		try {
+			closeJournalLocked();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Private helper that closes the journal, holding the write lock
+	 * 
+	 * @throws IOException if the final fsync fails
+	 */
+	private void closeJournalLocked() throws IOException {
+		if (journal != null) {
+			EditJournal closing = journal;
+			journal = null;
+			deferredEdits.clear();
+			closing.close();
+		}
+	}
+
+	/**
+	 * saves a snapshot that includes the journaled edits and empties the journal,
+	 * the snapshot takes the place of the loaded data the journal replays on. The
+	 * deferred edits of farms that are not loaded yet are not in the snapshot, so
+	 * they are written to the emptied journal again. Edits wait until both are
+	 * done, so none of them is lost between the two
+	 * @param file snapshot file to write, replaced if it exists
+	 * @throws IOException if writing the snapshot or truncating the journal fails
+	 */
+	public void checkpoint(File file) throws IOException {
+		long stamp = lock.writeLock();
+		try {
+			MilkSnapshot.write(store, minDate, maxDate, file);
+			if (journal != null) {
+				journal.truncate();
+				for (Map.Entry<String, HashMap<Integer, Integer>> edits : deferredEdits.entrySet()) {
+					for (Map.Entry<Integer, Integer> edit : edits.getValue().entrySet()) {
+						if (edit.getValue() == MilkStore.MISSING)
+							journal.append(EditJournal.REMOVE, edits.getKey(), edit.getKey(), 0);
+						else
+							journal.append(EditJournal.ADD, edits.getKey(), edit.getKey(), edit.getValue());
+					}
+				}
+				journal.sync();
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * sets how many reports the cache in front of the report methods holds, the
+	 * hit and miss counts of getReportCache show if it is large enough
+	 * @param capacity maximum number of cached reports, 0 to cache none
+	 */
+	public void setReportCacheCapacity(int capacity) {
+		cache.setCapacity(capacity);
+	}
+
+	/**
+	 * gets the cache in front of the report methods, for its hit and miss counts
+	 * @return the report cache
+	 */
+	public ReportCache getReportCache() {
+		return cache;
 	}
 
 	/**
@@ -170,17 +1330,21 @@ public class MilkManager {
 	 * @throws InvalidDateException if a date is invalid
 	 */
 	public ArrayList<String> getYears() throws InvalidDateException {
-		ArrayList<String> years = new ArrayList<String>();
-
-		for (Map.Entry<String, Farm> entry : map.entrySet()) {
-			for (Map.Entry<String, Integer> farm : map.get(entry.getKey()).getMilkWeightLog().entrySet()) {
-				MilkDate date = new MilkDate(farm.getKey());
-				if (!years.contains(String.valueOf(date.getYear())))
-					years.add(String.valueOf(date.getYear()));
+		// a built list is never changed, only replaced, so it can be copied without the lock
+		ArrayList<String> list = yearList;
+		if (list == null) {
+			long stamp = lock.readLock();
+			try {
+				TreeSet<String> years = new TreeSet<>();
+				for (int yearMonth : monthReadings.keySet())
+					years.add(String.valueOf(yearMonth / 12));
+				list = new ArrayList<>(years);
+				yearList = list;
+			} finally {
+				lock.unlockRead(stamp);
 			}
 		}
-		Collections.sort(years);
-		return years;
+		return new ArrayList<>(list);
 	}
 	
 	/**
@@ -189,17 +1353,20 @@ public class MilkManager {
 	 * @throws InvalidDateException if a date is invalid
 	 */
 	public ArrayList<String> getMonths() throws InvalidDateException {
-		ArrayList<String> months = new ArrayList<String>();
-
-		for (Map.Entry<String, Farm> entry : map.entrySet()) {
-			for (Map.Entry<String, Integer> farm : map.get(entry.getKey()).getMilkWeightLog().entrySet()) {
-				MilkDate date = new MilkDate(farm.getKey());
-				if (!months.contains(String.valueOf(date.monthToString())))
-					months.add(date.monthToString());
+		ArrayList<String> list = monthList;
+		if (list == null) {
+			long stamp = lock.readLock();
+			try {
+				TreeSet<String> months = new TreeSet<>();
+				for (int yearMonth : monthReadings.keySet())
+					months.add(MilkDate.monthToString(yearMonth % 12 + 1));
+				list = new ArrayList<>(months);
+				monthList = list;
+			} finally {
+				lock.unlockRead(stamp);
 			}
 		}
-		Collections.sort(months);
-		return months;
+		return new ArrayList<>(list);
 	}
 	
 	/**
@@ -207,14 +1374,17 @@ public class MilkManager {
 	 * @return list of farms' IDs
 	 */
 	public ArrayList<String> getFarms() {
-		ArrayList<String> farms = new ArrayList<String>();
-
-		for (Map.Entry<String, Farm> entry : map.entrySet()) {
-			if (!farms.contains(entry.getKey()))
-				farms.add(entry.getKey());
+		ArrayList<String> list = farmList;
+		if (list == null) {
+			long stamp = lock.readLock();
+			try {
+				list = new ArrayList<>(farmIDs);
+				farmList = list;
+			} finally {
+				lock.unlockRead(stamp);
+			}
 		}
-		Collections.sort(farms);
-		return farms;
+		return new ArrayList<>(list);
 	}
 
 	/**
@@ -225,56 +1395,43 @@ public class MilkManager {
 	 * @param year   the year to get the weights for
 	 * @return the List containing the 12 month's data
 	 * @throws InvalidDateException 
+	 * @throws FarmNotFoundException if the farm is not found
+	 */
+	public HashMap<Integer, WeightPercentPair> farmReport(String farmID, String year)
+			throws InvalidDateException, FarmNotFoundException {
+		ReportCache.Key key = new ReportCache.Key(ReportCache.Type.FARM, farmID, Integer.parseInt(year), 0);
+		long generation = cache.generation();
+		MilkStore current = snapshot;
+		HashMap<Integer, WeightPercentPair> farmReportList = cache.get(key);
+		if (farmReportList == null) {
+			farmReportList = computeFarmReport(current, farmID, year);
+			cache.put(key, farmReportList, generation);
+		}
+		return farmReportList;
+	}
+
+	/**
+	 * Private helper that computes a farm report without the cache
+	 * 
+	 * @param current snapshot of the store to read
+	 * @param farmID  the farm to get the weights for
+	 * @param year    the year to get the weights for
+	 * @return the List containing the 12 month's data
+	 * @throws FarmNotFoundException if the farm is not in the snapshot
 	 */
-	public HashMap<Integer, WeightPercentPair> farmReport(String farmID, String year) throws InvalidDateException {
+	private HashMap<Integer, WeightPercentPair> computeFarmReport(MilkStore current, String farmID, String year)
+			throws FarmNotFoundException {
 
 		int[] monthMilkWeight = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 }; // initial milk weights by year
 		HashMap<Integer, WeightPercentPair> farmReportList = new HashMap<>();
 		int yearValue = Integer.parseInt(year);
 
-		// iterate through farm milk data for farm with specified farm ID
-		for (Map.Entry<String, Integer> entry : map.get(farmID).getMilkWeightLog().entrySet()) {
-			MilkDate date = new MilkDate(entry.getKey());
-			// check to see if data point is in the correct year
-			if (date.getYear() == yearValue) { // add milk weight value of data point based on
-															// the month it was in
-				if (date.getMonth() == 1)
-					monthMilkWeight[0] += entry.getValue();
-
-				if (date.getMonth() == 2)
-					monthMilkWeight[1] += entry.getValue();
-
-				if (date.getMonth() == 3)
-					monthMilkWeight[2] += entry.getValue();
-
-				if (date.getMonth() == 4)
-					monthMilkWeight[3] += entry.getValue();
-
-				if (date.getMonth() == 5)
-					monthMilkWeight[4] += entry.getValue();
-
-				if (date.getMonth() == 6)
-					monthMilkWeight[5] += entry.getValue();
-
-				if (date.getMonth() == 7)
-					monthMilkWeight[6] += entry.getValue();
-
-				if (date.getMonth() == 8)
-					monthMilkWeight[7] += entry.getValue();
-
-				if (date.getMonth() == 9)
-					monthMilkWeight[8] += entry.getValue();
-
-				if (date.getMonth() == 10)
-					monthMilkWeight[9] += entry.getValue();
-
-				if (date.getMonth() == 11)
-					monthMilkWeight[10] += entry.getValue();
-
-				if (date.getMonth() == 12)
-					monthMilkWeight[11] += entry.getValue();
-			}
-		}
+		// add up the farm's milk data for each month of the year
+		int farm = current.handleOf(farmID);
+		if (farm < 0)
+			throw new FarmNotFoundException();
+		for (int month = 1; month <= 12; month++)
+			monthMilkWeight[month - 1] += current.getMonthlyMilkWeight(farm, yearValue, month);
 
 		// Find the total milk weight for the year
 		int totalWeight = 0;
@@ -291,70 +1448,6 @@ public class MilkManager {
 		return farmReportList;
 	}
 
-	/**
-	 * Private helper to get the total milk weight for a farm for a specified year
-	 * 
-	 * @param farmID Farm to use
-	 * @param year   year to use
-	 * @return total milk weight in the specified year for the farm
-	 * @throws InvalidDateException 
-	 */
-	private int getAnnualMilkWeight(String farmID, String year) throws InvalidDateException {
-		int[] monthMilkWeight = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 }; // initial milk weights by year
-		int yearValue = Integer.parseInt(year);
-
-		// Iterate through farm's milk weight data
-		for (Map.Entry<String, Integer> entry : map.get(farmID).getMilkWeightLog().entrySet()) {
-			MilkDate date = new MilkDate(entry.getKey());
-			// check to see if data point is in the correct year
-			if (date.getYear() == yearValue) { // add milk weight value of data point based on
-															// the month it was in
-				if (date.getMonth() == 1)
-					monthMilkWeight[0] += entry.getValue();
-
-				if (date.getMonth() == 2)
-					monthMilkWeight[1] += entry.getValue();
-
-				if (date.getMonth() == 3)
-					monthMilkWeight[2] += entry.getValue();
-
-				if (date.getMonth() == 4)
-					monthMilkWeight[3] += entry.getValue();
-
-				if (date.getMonth() == 5)
-					monthMilkWeight[4] += entry.getValue();
-
-				if (date.getMonth() == 6)
-					monthMilkWeight[5] += entry.getValue();
-
-				if (date.getMonth() == 7)
-					monthMilkWeight[6] += entry.getValue();
-
-				if (date.getMonth() == 8)
-					monthMilkWeight[7] += entry.getValue();
-
-				if (date.getMonth() == 9)
-					monthMilkWeight[8] += entry.getValue();
-
-				if (date.getMonth() == 10)
-					monthMilkWeight[9] += entry.getValue();
-
-				if (date.getMonth() == 11)
-					monthMilkWeight[10] += entry.getValue();
-
-				if (date.getMonth() == 12)
-					monthMilkWeight[11] += entry.getValue();
-			}
-		}
-
-		// Find the total milk weight for the year
-		int totalWeight = 0;
-		for (int i = 0; i < monthMilkWeight.length; i++) {
-			totalWeight += monthMilkWeight[i];
-		}
-		return totalWeight;
-	}
-
 	/**
 	 * Returns the total weight and percent of total weight of all farms by farm for
 	 * the specified year
@@ -365,37 +1458,26 @@ public class MilkManager {
 	 * @throws InvalidDateException 
 	 */
 	public HashMap<String, WeightPercentPair> annualReport(String year) throws InvalidDateException {
-		int totalMilkWeight = 0;
-		HashMap<String, WeightPercentPair> farmMap = new HashMap<>();
-
-		// Iterate through the entrySet to get the total milk weight
-		for (Map.Entry<String, Farm> entry : map.entrySet()) {
-			totalMilkWeight += getAnnualMilkWeight(entry.getKey(), year);
-		}
-
-		// Iterate through the entrySet to create weight, percent pairs
-		for (Map.Entry<String, Farm> entry : map.entrySet()) {
-			int milkWeight = getAnnualMilkWeight(entry.getKey(), year);
-			double percent = (double) milkWeight / totalMilkWeight;
-			WeightPercentPair pair = new WeightPercentPair(milkWeight, percent);
-
-			farmMap.put(entry.getKey(), pair);
+		int yearValue = Integer.parseInt(year);
+		ReportCache.Key key = new ReportCache.Key(ReportCache.Type.ANNUAL, null, yearValue, 0);
+		long generation = cache.generation();
+		MilkStore current = snapshot;
+		HashMap<String, WeightPercentPair> farmMap = cache.get(key);
+		if (farmMap == null) {
+			farmMap = report(current, (milkWeights, from, to) -> current.annualTotals(yearValue, milkWeights, from, to));
+			cache.put(key, farmMap, generation);
 		}
 		return farmMap;
 	}
 
 	/**
-	 * Private helper to get the total milk weight for a farm for a specified month
+	 * Private helper to convert a month name to its number
 	 * 
-	 * @param farmID Farm to use
-	 * @param month  month to use
-	 * @param year   year to use
-	 * @return total milk weight in the specified month for the farm
-	 * @throws InvalidMonthException
+	 * @param month month name or its three letter abbreviation
+	 * @return number of the month, 1 for january
+	 * @throws InvalidDateException if the month is not recognized
 	 */
-	private int getMonthlyMilkWeight(String farmID, String month, String year) throws InvalidDateException {
-		int totalMilkWeight = 0;
-		int yearValue = Integer.parseInt(year);
+	static int parseMonth(String month) throws InvalidDateException {
 		int monthValue = 0;
 
 		if (month.equalsIgnoreCase("january") || month.equalsIgnoreCase("jan"))
@@ -437,13 +1519,7 @@ public class MilkManager {
 		if (monthValue == 0)
 			throw new InvalidDateException();
 
-		for (Map.Entry<String, Integer> entry : map.get(farmID).getMilkWeightLog().entrySet()) {
-			MilkDate date = new MilkDate(entry.getKey());
-			if (date.getYear() == yearValue && date.getMonth() == monthValue)
-				totalMilkWeight += entry.getValue();
-		}
-
-		return totalMilkWeight;
+		return monthValue;
 	}
 
 	/**
@@ -457,78 +1533,179 @@ public class MilkManager {
 	 * @throws InvalidMonthException
 	 */
 	public HashMap<String, WeightPercentPair> monthlyReport(String month, String year) throws InvalidDateException {
-		int totalMilkWeight = 0;
-		HashMap<String, WeightPercentPair> farmMap = new HashMap<>();
-
-		// Iterate through the entrySet to get the total milk weight
-		for (Map.Entry<String, Farm> entry : map.entrySet()) {
-			totalMilkWeight += getMonthlyMilkWeight(entry.getKey(), month, year);
-		}
-
-		// Iterate through the entrySet to create weight, percent pairs
-		for (Map.Entry<String, Farm> entry : map.entrySet()) {
-			int milkWeight = getMonthlyMilkWeight(entry.getKey(), month, year);
-			double percent = (double) milkWeight / totalMilkWeight;
-			WeightPercentPair pair = new WeightPercentPair(milkWeight, percent);
-
-			farmMap.put(entry.getKey(), pair);
+		int monthValue = parseMonth(month);
+		int yearValue = Integer.parseInt(year);
+		ReportCache.Key key = new ReportCache.Key(ReportCache.Type.MONTHLY, null, yearValue, monthValue);
+		long generation = cache.generation();
+		MilkStore current = snapshot;
+		HashMap<String, WeightPercentPair> farmMap = cache.get(key);
+		if (farmMap == null) {
+			farmMap = report(current, (milkWeights, from, to) -> current.monthlyTotals(yearValue, monthValue, milkWeights, from, to));
+			cache.put(key, farmMap, generation);
 		}
 		return farmMap;
 	}
 
 	/**
-	 * Private helper to get the total milk weight for a farm in a specified date
-	 * range
+	 * Returns the total weight and percent of total weight of all farms by farm for
+	 * the specified date range
 	 * 
-	 * @param farmID    Farm to use
 	 * @param startDate Beginning of date range
 	 * @param endDate   End of date range
-	 * @return total milk weight in the given range for the farm
+	 * @return HashMap with contains all of the farm IDs as keys, and their
+	 *         contribution to the total weight
 	 * @throws InvalidDateException
 	 */
-	private int getMilkWeightInRange(String farmID, String startDateString, String endDateString)
+	public HashMap<String, WeightPercentPair> dateRangeReport(String startDate, String endDate)
 			throws InvalidDateException {
-		int totalMilkWeight = 0;
-		MilkDate startDate = new MilkDate(startDateString);
-		MilkDate endDate = new MilkDate(endDateString);
+		int startKey = new MilkDate(startDate).toKey();
+		int endKey = new MilkDate(endDate).toKey();
+		ReportCache.Key key = new ReportCache.Key(ReportCache.Type.DATE_RANGE, null, startKey, endKey);
+		long generation = cache.generation();
+		MilkStore current = snapshot;
+		HashMap<String, WeightPercentPair> farmMap = cache.get(key);
+		if (farmMap == null) {
+			farmMap = report(current, (milkWeights, from, to) -> current.rangeTotals(startKey, endKey, milkWeights, from, to));
+			cache.put(key, farmMap, generation);
+		}
+		return farmMap;
+	}
 
-		// iterate through farm milk weight data
-		for (Map.Entry<String, Integer> entry : map.get(farmID).getMilkWeightLog().entrySet()) {
-			MilkDate date = new MilkDate(entry.getKey());
-			// if the data is inside the specified range
-			if (startDate.compareTo(date) <= 0 && endDate.compareTo(date) >= 0)
-				totalMilkWeight += entry.getValue(); // increment total milk weight
+	/**
+	 * sets how many threads the all-farm reports may use
+	 * @param parallelism number of threads, 1 to always compute reports serially
+	 */
+	public synchronized void setReportParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException();
+		if (parallelism != reportParallelism && reportPool != null) {
+			reportPool.shutdown();
+			reportPool = null;
 		}
-		return totalMilkWeight;
+		reportParallelism = parallelism;
 	}
 
 	/**
-	 * Returns the total weight and percent of total weight of all farms by farm for
-	 * the specified date range
+	 * gets the pool the all-farm reports are split across, creating it the first
+	 * time a report needs it
+	 * @return the report pool
+	 */
+	private synchronized ForkJoinPool reportPool() {
+		if (reportPool == null)
+			reportPool = new ForkJoinPool(reportParallelism);
+		return reportPool;
+	}
+
+	/**
+	 * sets the number of farms below which the all-farm reports stay serial, since
+	 * splitting a small report costs more than it saves
+	 * @param threshold smallest number of farms to compute in parallel
+	 */
+	public void setParallelReportThreshold(int threshold) {
+		parallelReportThreshold = threshold;
+	}
+
+	/**
+	 * Computes the milk weights of a range of farm handles, one of the store's
+	 * report kernels
+	 */
+	private interface FarmWeights {
+		int of(int[] milkWeights, int from, int to);
+	}
+
+	/**
+	 * Private helper that runs an all-farm report. Each farm's weight is collected
+	 * into a primitive array indexed by farm handle together with the grand total,
+	 * then the percentages are filled in. Large reports are split across the
+	 * report pool, every task running the store kernel over its range of farms.
+	 * Interrupting the calling thread cancels the report, the kernels stop within
+	 * CANCEL_CHECK_INTERVAL farms
 	 * 
-	 * @param startDate Beginning of date range
-	 * @param endDate   End of date range
+	 * @param current snapshot of the store the kernel reads
+	 * @param weight  store kernel computing the weights of a range of farms
 	 * @return HashMap with contains all of the farm IDs as keys, and their
 	 *         contribution to the total weight
-	 * @throws InvalidDateException
+	 * @throws CancellationException if the calling thread was interrupted
 	 */
-	public HashMap<String, WeightPercentPair> dateRangeReport(String startDate, String endDate)
-			throws InvalidDateException {
-		int totalMilkWeight = 0;
-		HashMap<String, WeightPercentPair> farmMap = new HashMap<>();
+	private HashMap<String, WeightPercentPair> report(MilkStore current, FarmWeights weight) {
+		int farmCount = current.farmCount();
+		int[] milkWeights = new int[farmCount];
+		Thread caller = Thread.currentThread();
+		int totalMilkWeight;
+		if (reportParallelism < 2 || farmCount < parallelReportThreshold) {
+			totalMilkWeight = new ReportTask(weight, milkWeights, 0, farmCount, farmCount, caller).compute();
+		}
 
-		// Iterate through the entrySet to get total milk weight
-		for (Map.Entry<String, Farm> entry : map.entrySet()) {
-			totalMilkWeight += getMilkWeightInRange(entry.getKey(), startDate, endDate);
+		else {
+			ForkJoinPool pool = reportPool();
+			int leafSize = Math.max(64, farmCount / (pool.getParallelism() * 4));
+			totalMilkWeight = pool.invoke(new ReportTask(weight, milkWeights, 0, farmCount, leafSize, caller));
+		}
+		return toReport(current, milkWeights, totalMilkWeight);
+	}
+
+	/**
+	 * Fork/join task that fills in the weights of a range of farms and returns
+	 * their total. The tasks run on the report pool, so they check the thread that
+	 * asked for the report for an interrupt instead of their own
+	 */
+	@SuppressWarnings("serial")
+	private static class ReportTask extends RecursiveTask<Integer> {
+		private FarmWeights weight;
+		private int[] milkWeights;
+		private int from;
+		private int to;
+		private int leafSize;
+		private Thread caller;
+
+		ReportTask(FarmWeights weight, int[] milkWeights, int from, int to, int leafSize, Thread caller) {
+			this.weight = weight;
+			this.milkWeights = milkWeights;
+			this.from = from;
+			this.to = to;
+			this.leafSize = leafSize;
+			this.caller = caller;
 		}
 
-		// Iterate through the entrySet to create weight, percent pairs
-		for (Map.Entry<String, Farm> entry : map.entrySet()) {
-			int milkWeight = getMilkWeightInRange(entry.getKey(), startDate, endDate);
-			double percent = (double) milkWeight / totalMilkWeight;
-			WeightPercentPair pair = new WeightPercentPair(milkWeight, percent);
+		@Override
+		protected Integer compute() {
+			if (to - from > leafSize) {
+				int middle = (from + to) >>> 1;
+				ReportTask left = new ReportTask(weight, milkWeights, from, middle, leafSize, caller);
+				left.fork();
+				int right = new ReportTask(weight, milkWeights, middle, to, leafSize, caller).compute();
+				return left.join() + right;
+			}
+
+			int totalMilkWeight = 0;
+			for (int start = from; start < to; start += CANCEL_CHECK_INTERVAL) {
+				if (caller.isInterrupted())
+					throw new CancellationException();
+				totalMilkWeight += weight.of(milkWeights, start, Math.min(to, start + CANCEL_CHECK_INTERVAL));
+			}
+			return totalMilkWeight;
+		}
+	}
+
+	/**
+	 * Private helper that turns per farm weights into weight, percent pairs, keyed
+	 * by farm ID
+	 * 
+	 * @param current         snapshot of the store the weights come from
+	 * @param milkWeights     milk weight of each farm, indexed by farm handle
+	 * @param totalMilkWeight total milk weight of all farms
+	 * @return HashMap with contains all of the farm IDs as keys, and their
+	 *         contribution to the total weight
+	 * @throws CancellationException if the calling thread was interrupted
+	 */
+	private HashMap<String, WeightPercentPair> toReport(MilkStore current, int[] milkWeights, int totalMilkWeight) {
+		HashMap<String, WeightPercentPair> farmMap = new HashMap<>();
 
-			farmMap.put(entry.getKey(), pair);
+		for (int i = 0; i < milkWeights.length; i++) {
+			if (i % CANCEL_CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted())
+				throw new CancellationException();
+			double percent = (double) milkWeights[i] / totalMilkWeight;
+			farmMap.put(current.idOf(i), new WeightPercentPair(milkWeights[i], percent));
 		}
 		return farmMap;
 	}
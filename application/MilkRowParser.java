@@ -0,0 +1,261 @@
+package application;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Hand written parser for the date,farm_id,weight rows of a milk weight file.
+ * Fields are read straight out of a byte buffer, so parsing a row does not
+ * create any objects. Farm IDs are numbered in the order they are first seen,
+ * rows carry that dense index instead of a String. IDs are decoded once with
+ * the platform charset, the same as FileReader
+ */
+public class MilkRowParser {
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	private ByteBuffer buffer;
+
+	// open addressing table used to number farm IDs without decoding them
+	private byte[][] idBytes = new byte[64][];
+	private int[] idIndexes = new int[64];
+	private int[] idHashes = new int[64];
+	private String[] ids = new String[32]; // decoded farm IDs by index
+	private int idCount;
+
+	/**
+	 * Receives every valid row found by the parser
+	 */
+	interface RowHandler {
+		/**
+		 * called once per valid row
+		 * @param year year of the row's date
+		 * @param month month of the row's date
+		 * @param day day of the row's date
+		 * @param farm index of the row's farm ID, see getFarmID
+		 * @param milkWeight milk weight of the row
+		 */
+		void row(int year, int month, int day, int farm, int milkWeight);
+	}
+
+	/**
+	 * gets a farm ID by the index rows use for it
+	 * @param farm index of the farm ID
+	 * @return the farm ID
+	 */
+	public String getFarmID(int farm) {
+		return ids[farm];
+	}
+
+	/**
+	 * parses every row of a stream, rows with an invalid date or weight are
+	 * skipped
+	 * @param in stream to read the rows from
+	 * @param handler receives the valid rows
+	 * @throws IOException if reading the stream has an error
+	 */
+	public void parse(InputStream in, RowHandler handler) throws IOException {
+		if (buffer == null)
+			buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		byte[] bytes = buffer.array();
+		int length = 0;
+		int read;
+		while ((read = in.read(bytes, length, bytes.length - length)) > 0) {
+			length += read;
+			int consumed = parse(buffer, 0, length, false, handler);
+
+			// move the unfinished last row to the front of the buffer
+			System.arraycopy(bytes, consumed, bytes, 0, length - consumed);
+			length -= consumed;
+
+			// a single row longer than the buffer, make room for the rest of it
+			if (length == bytes.length) {
+				ByteBuffer larger = ByteBuffer.allocate(bytes.length * 2);
+				larger.put(bytes, 0, length);
+				buffer = larger;
+				bytes = larger.array();
+			}
+		}
+		parse(buffer, 0, length, true, handler);
+	}
+
+	/**
+	 * parses the rows stored in a region of a buffer
+	 * @param buf buffer holding the rows
+	 * @param from index of the first byte of the region
+	 * @param to index after the last byte of the region
+	 * @param last true if the region ends the input, so a row without a trailing
+	 *             new line is complete
+	 * @param handler receives the valid rows
+	 * @return index after the last row that was parsed
+	 */
+	int parse(ByteBuffer buf, int from, int to, boolean last, RowHandler handler) {
+		int start = from;
+		for (int i = from; i < to; i++) {
+			if (buf.get(i) == '\n') {
+				parseRow(buf, start, i, handler);
+				start = i + 1;
+			}
+		}
+
+		if (last && start < to) {
+			parseRow(buf, start, to, handler);
+			start = to;
+		}
+		return start;
+	}
+
+	/**
+	 * parses one row without its new line
+	 * @param buf buffer holding the row
+	 * @param start index of the first byte of the row
+	 * @param end index after the last byte of the row
+	 * @param handler receives the row if it is valid
+	 */
+	private void parseRow(ByteBuffer buf, int start, int end, RowHandler handler) {
+		if (end > start && buf.get(end - 1) == '\r')
+			end--;
+
+		// date fields, year-month-day
+		int i = start;
+		int year = 0, month = 0, day = 0;
+		int digits = 0;
+		for (; i < end && buf.get(i) != '-'; i++, digits++) {
+			int d = buf.get(i) - '0';
+			if (d < 0 || d > 9 || digits == 9)
+				return;
+			year = year * 10 + d;
+		}
+		if (digits == 0 || ++i >= end)
+			return;
+
+		for (digits = 0; i < end && buf.get(i) != '-'; i++, digits++) {
+			int d = buf.get(i) - '0';
+			if (d < 0 || d > 9 || digits == 9)
+				return;
+			month = month * 10 + d;
+		}
+		if (digits == 0 || ++i >= end)
+			return;
+
+		for (digits = 0; i < end && buf.get(i) != ','; i++, digits++) {
+			int d = buf.get(i) - '0';
+			if (d < 0 || d > 9 || digits == 9)
+				return;
+			day = day * 10 + d;
+		}
+		if (digits == 0 || ++i >= end || !MilkDate.isValid(year, month, day))
+			return;
+
+		// farm ID, everything up to the next comma
+		int idStart = i;
+		int hash = 0;
+		for (; i < end && buf.get(i) != ','; i++)
+			hash = 31 * hash + buf.get(i);
+		int idEnd = i;
+		if (++i >= end)
+			return;
+
+		// weight, an optionally signed int. Integer.MIN_VALUE marks a missing day in
+		// Farm, so it is rejected along with values that overflow
+		boolean negative = false;
+		if (buf.get(i) == '-' || buf.get(i) == '+') {
+			negative = buf.get(i) == '-';
+			i++;
+		}
+		long weight = 0;
+		for (digits = 0; i < end && buf.get(i) != ','; i++, digits++) {
+			int d = buf.get(i) - '0';
+			if (d < 0 || d > 9 || digits == 10)
+				return;
+			weight = weight * 10 + d;
+		}
+		if (negative)
+			weight = -weight;
+		if (digits == 0 || weight > Integer.MAX_VALUE || weight <= Integer.MIN_VALUE)
+			return;
+
+		handler.row(year, month, day, indexOf(buf, idStart, idEnd, hash), (int) weight);
+	}
+
+	/**
+	 * looks up the index of a farm ID, numbering and decoding it the first time it
+	 * is seen
+	 * @param buf buffer holding the farm ID
+	 * @param start index of the first byte of the farm ID
+	 * @param end index after the last byte of the farm ID
+	 * @param hash hash of the farm ID's bytes
+	 * @return index of the farm ID
+	 */
+	private int indexOf(ByteBuffer buf, int start, int end, int hash) {
+		int mask = idBytes.length - 1;
+		int slot = mix(hash) & mask;
+		while (idBytes[slot] != null) {
+			if (idHashes[slot] == hash && sameBytes(idBytes[slot], buf, start, end))
+				return idIndexes[slot];
+			slot = (slot + 1) & mask;
+		}
+
+		byte[] bytes = new byte[end - start];
+		for (int i = start; i < end; i++)
+			bytes[i - start] = buf.get(i);
+		if (idCount == ids.length)
+			ids = Arrays.copyOf(ids, idCount * 2);
+		ids[idCount] = new String(bytes, Charset.defaultCharset());
+		idBytes[slot] = bytes;
+		idIndexes[slot] = idCount;
+		idHashes[slot] = hash;
+
+		if (++idCount * 2 > idBytes.length)
+			growIdTable();
+		return idCount - 1;
+	}
+
+	/**
+	 * doubles the size of the farm ID table
+	 */
+	private void growIdTable() {
+		byte[][] oldBytes = idBytes;
+		int[] oldIndexes = idIndexes;
+		int[] oldHashes = idHashes;
+		idBytes = new byte[oldBytes.length * 2][];
+		idIndexes = new int[oldBytes.length * 2];
+		idHashes = new int[oldBytes.length * 2];
+
+		int mask = idBytes.length - 1;
+		for (int i = 0; i < oldBytes.length; i++) {
+			if (oldBytes[i] == null)
+				continue;
+			int slot = mix(oldHashes[i]) & mask;
+			while (idBytes[slot] != null)
+				slot = (slot + 1) & mask;
+			idBytes[slot] = oldBytes[i];
+			idIndexes[slot] = oldIndexes[i];
+			idHashes[slot] = oldHashes[i];
+		}
+	}
+
+	/**
+	 * spreads the bits of a hash so sequential farm IDs do not cluster
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * compares stored farm ID bytes with a region of a buffer
+	 */
+	private static boolean sameBytes(byte[] bytes, ByteBuffer buf, int start, int end) {
+		if (bytes.length != end - start)
+			return false;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] != buf.get(start + i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,220 @@
+package application;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of the readings in a MilkStore, so a restart does not have to
+ * parse the CSV files again. The layout is
+ * <ul>
+ * <li>the magic number MILK and a format version byte</li>
+ * <li>the smallest and largest ingested date as packed date keys, -1 if none</li>
+ * <li>the number of farms, then for every farm its UTF-8 encoded ID, its number
+ * of readings and its readings in date order</li>
+ * <li>a CRC32 of every byte before it</li>
+ * </ul>
+ * Each farm ID is written once, readings only belong to the farm they follow.
+ * Days and weights are delta encoded against the previous reading of the farm
+ * as zigzag variable length ints, so a daily series takes about three bytes per
+ * reading. Loading maps the file and checks the checksum before anything is
+ * decoded, so a damaged snapshot never leaves half of its data behind
+ */
+class MilkSnapshot {
+	private static final int MAGIC = 0x4D494C4B; // MILK
+	private static final int VERSION = 1;
+	private static final int NO_DATE = -1;
+
+	/**
+	 * Receives the contents of a snapshot while it is decoded
+	 */
+	interface Loader {
+		/**
+		 * called once with the date range before any farm
+		 * @param minDate packed date key of the smallest date, or -1 if there is none
+		 * @param maxDate packed date key of the largest date, or -1 if there is none
+		 */
+		void dates(int minDate, int maxDate);
+
+		/**
+		 * called for every farm before its readings
+		 * @param farmID ID of the farm
+		 * @return handle that the readings of the farm are passed with
+		 */
+		int farm(String farmID);
+
+		/**
+		 * called for every reading of the farm that was passed last, in date order
+		 * @param farm handle returned for the farm
+		 * @param date packed date key of the reading
+		 * @param milkWeight weight of the reading
+		 */
+		void reading(int farm, int date, int milkWeight);
+	}
+
+	/**
+	 * writes a snapshot of a store to a file. The snapshot is written to a
+	 * temporary file next to it first and moved in place, so an existing snapshot
+	 * is only replaced by a complete one
+	 * @param store store to save
+	 * @param minDate smallest ingested date, or null if there is none
+	 * @param maxDate largest ingested date, or null if there is none
+	 * @param file file to write
+	 * @throws IOException if writing the file has an error
+	 */
+	static void write(MilkStore store, MilkDate minDate, MilkDate maxDate, File file) throws IOException {
+		Path target = file.toPath().toAbsolutePath();
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		try {
+			CRC32 checksum = new CRC32();
+			try (OutputStream fileOut = Files.newOutputStream(temp);
+					CheckedOutputStream out = new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16),
+							checksum)) {
+				writeInt(out, MAGIC);
+				out.write(VERSION);
+				writeInt(out, minDate == null ? NO_DATE : minDate.toKey());
+				writeInt(out, maxDate == null ? NO_DATE : maxDate.toKey());
+
+				int farmCount = store.farmCount();
+				writeVarInt(out, farmCount);
+				for (int farm = 0; farm < farmCount; farm++)
+					writeFarm(out, store, farm);
+
+				out.flush();
+				fileOut.write(intBytes((int) checksum.getValue()));
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * writes the ID and the delta encoded readings of one farm
+	 * @param out stream to write to
+	 * @param store store holding the farm
+	 * @param farm handle of the farm
+	 * @throws IOException if writing has an error
+	 */
+	private static void writeFarm(OutputStream out, MilkStore store, int farm) throws IOException {
+		byte[] id = store.idOf(farm).getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, id.length);
+		out.write(id);
+
+		int[] readings = { 0 };
+		store.forEachReading(farm, (date, milkWeight) -> readings[0]++);
+		writeVarInt(out, readings[0]);
+
+		// the visitor cannot throw, so a write error is carried out of it
+		int[] previous = { 0, 0 }; // epoch day and weight of the previous reading
+		IOException[] error = { null };
+		store.forEachReading(farm, (date, milkWeight) -> {
+			if (error[0] != null)
+				return;
+			int day = MilkDate.toEpochDay(date);
+			try {
+				writeVarInt(out, zigzag(day - previous[0]));
+				writeVarInt(out, zigzag(milkWeight - previous[1]));
+			} catch (IOException e) {
+				error[0] = e;
+			}
+			previous[0] = day;
+			previous[1] = milkWeight;
+		});
+		if (error[0] != null)
+			throw error[0];
+	}
+
+	/**
+	 * memory maps a snapshot, checks its checksum and passes its contents to a
+	 * loader
+	 * @param file snapshot to read
+	 * @param loader receives the farms and readings
+	 * @throws IOException if the file cannot be read or is not a valid snapshot
+	 */
+	static void read(File file, Loader loader) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < 18 || size > Integer.MAX_VALUE)
+				throw new IOException("not a snapshot: " + file);
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			CRC32 checksum = new CRC32();
+			ByteBuffer body = buf.duplicate();
+			body.limit((int) size - 4);
+			checksum.update(body);
+			if ((int) checksum.getValue() != buf.getInt((int) size - 4))
+				throw new IOException("snapshot checksum mismatch: " + file);
+
+			buf.limit((int) size - 4);
+			if (buf.getInt() != MAGIC || buf.get() != VERSION)
+				throw new IOException("not a snapshot: " + file);
+			loader.dates(buf.getInt(), buf.getInt());
+
+			int farmCount = readVarInt(buf);
+			for (int i = 0; i < farmCount; i++) {
+				byte[] id = new byte[readVarInt(buf)];
+				buf.get(id);
+				int farm = loader.farm(new String(id, StandardCharsets.UTF_8));
+
+				int readings = readVarInt(buf);
+				int day = 0;
+				int milkWeight = 0;
+				for (int r = 0; r < readings; r++) {
+					day += unzigzag(readVarInt(buf));
+					milkWeight += unzigzag(readVarInt(buf));
+					loader.reading(farm, MilkDate.fromEpochDay(day), milkWeight);
+				}
+			}
+		} catch (RuntimeException e) {
+			// a buffer underflow or an out of range value means the file is not one we wrote
+			throw new IOException("invalid snapshot: " + file, e);
+		}
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarInt(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarInt(ByteBuffer buf) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buf.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IOException("malformed variable length int");
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		out.write(intBytes(value));
+	}
+
+	private static byte[] intBytes(int value) {
+		return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+	}
+}
@@ -0,0 +1,233 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage engine behind MilkManager. Farms are addressed by the dense handles
+ * of a FarmDictionary and dates by packed date keys, see MilkDate.toKey. The
+ * report kernels fill in the weight of a range of farm handles and return their
+ * total, so a store can scan its own layout in whatever order suits it
+ */
+public interface MilkStore {
+	/**
+	 * weight returned for a day without a reading, it cannot be stored itself
+	 */
+	int MISSING = Integer.MIN_VALUE;
+
+	/**
+	 * Receives the readings of a farm in date order
+	 */
+	interface ReadingVisitor {
+		void reading(int date, int milkWeight);
+	}
+
+	/**
+	 * gets the number of farms, handles run from 0 to farmCount - 1
+	 * @return number of farms
+	 */
+	int farmCount();
+
+	/**
+	 * gets the handle of a farm ID
+	 * @param farmID ID of the farm
+	 * @return handle of the farm, or -1 if the farm is not in the store
+	 */
+	int handleOf(String farmID);
+
+	/**
+	 * gets the ID of a farm by its handle
+	 * @param farm handle of the farm
+	 * @return ID of the farm
+	 */
+	String idOf(int farm);
+
+	/**
+	 * adds a farm without readings
+	 * @param farmID ID of the farm, it must not be in the store yet
+	 * @return handle of the new farm
+	 */
+	int addFarm(String farmID);
+
+	/**
+	 * sets the milk weight of a farm on a date, replacing any earlier reading
+	 * @param farm handle of the farm
+	 * @param date packed date key
+	 * @param milkWeight weight of milk, anything but MISSING
+	 */
+	void addMilk(int farm, int date, int milkWeight);
+
+	/**
+	 * removes the reading of a farm on a date
+	 * @param farm handle of the farm
+	 * @param date packed date key
+	 * @throws MissingDataException if the farm has no reading on the date
+	 */
+	void removeMilk(int farm, int date) throws MissingDataException;
+
+	/**
+	 * sets and removes a group of readings of one farm
+	 * @param farm handle of the farm
+	 * @param dates packed date keys of the readings
+	 * @param milkWeights new weights, MISSING removes the reading
+	 * @param count number of readings in the arrays
+	 * @throws MissingDataException if a reading to remove does not exist, a store
+	 *                              that defers the removal may leave the check to
+	 *                              the caller
+	 */
+	default void setReadings(int farm, int[] dates, int[] milkWeights, int count) throws MissingDataException {
+		for (int i = 0; i < count; i++) {
+			if (milkWeights[i] == MISSING)
+				removeMilk(farm, dates[i]);
+			else
+				addMilk(farm, dates[i], milkWeights[i]);
+		}
+	}
+
+	/**
+	 * gets the milk weight of a farm on a date
+	 * @param farm handle of the farm
+	 * @param date packed date key
+	 * @return the milk weight, or MISSING if there is no reading on the date
+	 */
+	int getMilkWeight(int farm, int date);
+
+	/**
+	 * gets the total milk weight of a farm in a month
+	 * @param farm handle of the farm
+	 * @param year year of the month
+	 * @param month month to total
+	 * @return total milk weight of the month
+	 */
+	int getMonthlyMilkWeight(int farm, int year, int month);
+
+	/**
+	 * gets the number of readings of a farm in a month
+	 * @param farm handle of the farm
+	 * @param year year of the month
+	 * @param month month to count
+	 * @return number of days in the month that have a reading
+	 */
+	int getReadingCount(int farm, int year, int month);
+
+	/**
+	 * gets the total milk weight of a farm between two dates
+	 * @param farm handle of the farm
+	 * @param startDate packed date key of the first day, inclusive
+	 * @param endDate packed date key of the last day, inclusive
+	 * @return total milk weight of the readings in the range
+	 */
+	int getMilkWeightInRange(int farm, int startDate, int endDate);
+
+	/**
+	 * visits every reading of a farm in date order
+	 * @param farm handle of the farm
+	 * @param visitor receives the readings
+	 */
+	void forEachReading(int farm, ReadingVisitor visitor);
+
+	/**
+	 * finishes work that the store deferred on writes, for example merging pending
+	 * readings into its main layout. Reads see the writes without it
+	 */
+	default void flush() {
+	}
+
+	/**
+	 * gets how many shards of farms can be written to at once. Writes to farms of
+	 * different shards, farm handle % shards, may run on different threads as long
+	 * as no farm is added meanwhile. This default allows one writer at a time
+	 * @return number of shards
+	 */
+	default int shards() {
+		return 1;
+	}
+
+	/**
+	 * gets an immutable copy of the store as it is now, which readers can use
+	 * while the store keeps changing. This default copies every reading into a
+	 * FarmStore, stores that can share their data with the copy override it
+	 * @return snapshot of the store, it must not be written to
+	 */
+	default MilkStore snapshot() {
+		FarmStore snapshot = new FarmStore();
+		snapshot.addAll(this, new ArrayList<>());
+		return snapshot;
+	}
+
+	/**
+	 * report kernel for the total milk weight of every farm in a year
+	 * @param year year to total
+	 * @param milkWeights weights by farm handle, entries from to to - 1 are set
+	 * @param from first farm handle
+	 * @param to farm handle after the last one
+	 * @return total milk weight of the farms
+	 */
+	default int annualTotals(int year, int[] milkWeights, int from, int to) {
+		int totalMilkWeight = 0;
+		for (int farm = from; farm < to; farm++) {
+			int milkWeight = 0;
+			for (int month = 1; month <= 12; month++)
+				milkWeight += getMonthlyMilkWeight(farm, year, month);
+			milkWeights[farm] = milkWeight;
+			totalMilkWeight += milkWeight;
+		}
+		return totalMilkWeight;
+	}
+
+	/**
+	 * report kernel for the total milk weight of every farm in a month
+	 * @param year year of the month
+	 * @param month month to total
+	 * @param milkWeights weights by farm handle, entries from to to - 1 are set
+	 * @param from first farm handle
+	 * @param to farm handle after the last one
+	 * @return total milk weight of the farms
+	 */
+	default int monthlyTotals(int year, int month, int[] milkWeights, int from, int to) {
+		int totalMilkWeight = 0;
+		for (int farm = from; farm < to; farm++) {
+			milkWeights[farm] = getMonthlyMilkWeight(farm, year, month);
+			totalMilkWeight += milkWeights[farm];
+		}
+		return totalMilkWeight;
+	}
+
+	/**
+	 * report kernel for the total milk weight of every farm between two dates
+	 * @param startDate packed date key of the first day, inclusive
+	 * @param endDate packed date key of the last day, inclusive
+	 * @param milkWeights weights by farm handle, entries from to to - 1 are set
+	 * @param from first farm handle
+	 * @param to farm handle after the last one
+	 * @return total milk weight of the farms
+	 */
+	default int rangeTotals(int startDate, int endDate, int[] milkWeights, int from, int to) {
+		int totalMilkWeight = 0;
+		for (int farm = from; farm < to; farm++) {
+			milkWeights[farm] = getMilkWeightInRange(farm, startDate, endDate);
+			totalMilkWeight += milkWeights[farm];
+		}
+		return totalMilkWeight;
+	}
+
+	/**
+	 * adds every reading of a batch store to this store, replacing readings on the
+	 * same farm and date
+	 * @param batch store holding the parsed rows of an ingest
+	 * @param addedFarms receives the IDs of farms that were not in this store yet
+	 */
+	default void addAll(MilkStore batch, List<String> addedFarms) {
+		for (int parsed = 0; parsed < batch.farmCount(); parsed++) {
+			String farmID = batch.idOf(parsed);
+			int farm = handleOf(farmID);
+			if (farm < 0) {
+				farm = addFarm(farmID);
+				addedFarms.add(farmID);
+			}
+
+			int target = farm;
+			batch.forEachReading(parsed, (date, milkWeight) -> addMilk(target, date, milkWeight));
+		}
+	}
+}
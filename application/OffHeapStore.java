@@ -0,0 +1,23 @@
+package application;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Columnar MilkStore that keeps the day and weight columns, the pending
+ * readings and the sort order of a compaction in direct buffers outside of the
+ * Java heap. An ingest writes its rows straight into the pending buffers. Only
+ * the farm dictionary, the per farm offsets and the readings of one farm being
+ * sorted stay on the heap, so the heap and the garbage collector's work stay
+ * flat however many readings are loaded. The direct memory is bounded by
+ * -XX:MaxDirectMemorySize and a replaced column is released when its buffer is
+ * collected
+ */
+public class OffHeapStore extends ColumnarStore {
+
+	@Override
+	protected IntBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+	}
+}
@@ -0,0 +1,259 @@
+package application;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Bounded least recently used cache of report results, keyed by the report type
+ * and its parameters. MilkManager invalidates the entries an edit or ingest can
+ * change, so a cached report always matches the current data. Cached reports are
+ * shared between callers and must not be modified.
+ * <p>
+ * Reports are computed without a lock on snapshots of the data, so a report
+ * that was computed while a change was being made may be older than that change
+ * and come in after its invalidations. The cache keeps a generation that is
+ * odd while a change is under way and counts up when it starts and ends, and
+ * only keeps a report whose generation did not change while it was computed
+ */
+public class ReportCache {
+
+	/**
+	 * The kinds of reports that can be cached
+	 */
+	enum Type {
+		FARM, ANNUAL, MONTHLY, DATE_RANGE
+	}
+
+	private LinkedHashMap<Key, Object> entries;
+	private int capacity;
+	private long hits;
+	private long misses;
+	private long generation; // odd while a change is being made
+
+	/**
+	 * constructor for a cache holding at most the given number of reports
+	 * @param capacity maximum number of cached reports
+	 */
+	public ReportCache(int capacity) {
+		setCapacity(capacity);
+		entries = new LinkedHashMap<Key, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+				return size() > ReportCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * gets the maximum number of cached reports
+	 * @return capacity of the cache
+	 */
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * sets the maximum number of cached reports, removing the least recently used
+	 * reports if more are cached
+	 * @param capacity maximum number of cached reports, 0 to cache none
+	 */
+	public synchronized void setCapacity(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException();
+		this.capacity = capacity;
+
+		if (entries != null) {
+			Iterator<Key> it = entries.keySet().iterator();
+			while (entries.size() > capacity) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * looks up a cached report and counts the hit or miss
+	 * @param key report type and parameters
+	 * @return the cached report, or null if it is not cached
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized <T> T get(Key key) {
+		Object report = entries.get(key);
+		if (report == null)
+			misses++;
+		else
+			hits++;
+		return (T) report;
+	}
+
+	/**
+	 * caches a report unless the data changed since it started
+	 * @param key report type and parameters
+	 * @param report report to cache
+	 * @param generation generation read before the report's snapshot was taken
+	 */
+	synchronized void put(Key key, Object report, long generation) {
+		if (generation == this.generation && (generation & 1) == 0)
+			entries.put(key, report);
+	}
+
+	/**
+	 * gets the current generation, to be read before taking the snapshot a report
+	 * is computed from
+	 * @return the generation
+	 */
+	synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * marks the start of a change of the data
+	 */
+	synchronized void beginWrite() {
+		generation++;
+	}
+
+	/**
+	 * marks the end of a change of the data, after its snapshot was published
+	 */
+	synchronized void endWrite() {
+		generation++;
+	}
+
+	/**
+	 * removes the reports that an edit of one reading can change
+	 * @param farmID farm that was edited
+	 * @param date packed date key of the edited reading
+	 */
+	synchronized void invalidate(String farmID, int date) {
+		int year = MilkDate.yearOf(date);
+		int month = MilkDate.monthOf(date);
+		Iterator<Key> it = entries.keySet().iterator();
+		while (it.hasNext()) {
+			Key key = it.next();
+			if ((key.type == Type.FARM && key.first == year && key.farmID.equals(farmID))
+					|| (key.type == Type.ANNUAL && key.first == year)
+					|| (key.type == Type.MONTHLY && key.first == year && key.second == month)
+					|| (key.type == Type.DATE_RANGE && key.first <= date && date <= key.second))
+				it.remove();
+		}
+	}
+
+	/**
+	 * removes the reports that edits of one farm's readings in a month can change
+	 * @param farmID farm that was edited
+	 * @param year year of the month
+	 * @param month month that was edited
+	 */
+	synchronized void invalidate(String farmID, int year, int month) {
+		int first = MilkDate.toKey(year, month, 1);
+		int last = MilkDate.toKey(year, month, MilkDate.daysInMonth(year, month));
+		Iterator<Key> it = entries.keySet().iterator();
+		while (it.hasNext()) {
+			Key key = it.next();
+			if ((key.type == Type.FARM && key.first == year && key.farmID.equals(farmID))
+					|| (key.type == Type.ANNUAL && key.first == year)
+					|| (key.type == Type.MONTHLY && key.first == year && key.second == month)
+					|| (key.type == Type.DATE_RANGE && key.first <= last && first <= key.second))
+				it.remove();
+		}
+	}
+
+	/**
+	 * removes the reports that an ingest of new readings in a month can change
+	 * @param year year of the month
+	 * @param month month that got new readings
+	 * @param farmIDs farms that got readings in the month, farms that only got
+	 *                readings in other months of the year may be in it
+	 */
+	synchronized void invalidateMonth(int year, int month, Set<String> farmIDs) {
+		int first = MilkDate.toKey(year, month, 1);
+		int last = MilkDate.toKey(year, month, MilkDate.daysInMonth(year, month));
+		Iterator<Key> it = entries.keySet().iterator();
+		while (it.hasNext()) {
+			Key key = it.next();
+			if ((key.type == Type.FARM && key.first == year && farmIDs.contains(key.farmID))
+					|| (key.type == Type.ANNUAL && key.first == year)
+					|| (key.type == Type.MONTHLY && key.first == year && key.second == month)
+					|| (key.type == Type.DATE_RANGE && key.first <= last && first <= key.second))
+				it.remove();
+		}
+	}
+
+	/**
+	 * removes every report that lists all farms, needed when a farm is added
+	 */
+	synchronized void invalidateAllFarmReports() {
+		entries.keySet().removeIf(key -> key.type != Type.FARM);
+	}
+
+	/**
+	 * removes every cached report
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * gets the number of lookups that found a cached report
+	 * @return number of cache hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * gets the number of lookups that had to compute the report
+	 * @return number of cache misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * gets the number of cached reports
+	 * @return number of cached reports
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Report type and parameters identifying a cached report. Farm and annual
+	 * reports use first for the year, monthly reports use first and second for the
+	 * year and month, date range reports use them for the packed start and end
+	 * dates
+	 */
+	static class Key {
+		private Type type;
+		private String farmID;
+		private int first;
+		private int second;
+
+		Key(Type type, String farmID, int first, int second) {
+			this.type = type;
+			this.farmID = farmID;
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return type == other.type && first == other.first && second == other.second
+					&& Objects.equals(farmID, other.farmID);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(type, farmID, first, second);
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package application;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import application.MilkManager.WeightPercentPair;
+
+/**
+ * Command line report runner that needs no JavaFX runtime or display. It loads
+ * every CSV file of a directory into a MilkManager and writes a report file for
+ * every report that is asked for, in the same format as the reports saved by
+ * the application. A report is one of
+ *
+ * <pre>
+ * farm,FARM_ID,YEAR
+ * annual,YEAR
+ * monthly,MONTH,YEAR
+ * range,START_DATE,END_DATE
+ * </pre>
+ *
+ * given as an argument, or as a line of a file named by an argument starting
+ * with '@'. Blank lines and lines starting with '#' in such a file are skipped.
+ * The exit status is 0 if every report was written, 1 for bad arguments or
+ * input files and 2 if some reports failed
+ */
+public class ReportRunner {
+	private static final String USAGE = "usage: java application.ReportRunner CSV_DIRECTORY OUTPUT_DIRECTORY "
+			+ "[farm,FARM_ID,YEAR | annual,YEAR | monthly,MONTH,YEAR | range,START_DATE,END_DATE | @FILE]...";
+	private static final String[] MONTHS = { "JANUARY", "FEBRUARY", "MARCH", "APRIL", "MAY", "JUNE", "JULY",
+			"AUGUST", "SEPTEMBER", "OCTOBER", "NOVEMBER", "DECEMBER" };
+
+	private DecimalFormat df = new DecimalFormat("#.##");
+	private MilkManager milkManager;
+	private File outputDirectory;
+
+	/**
+	 * constructor for a runner that writes the reports of a loaded manager
+	 * @param milkManager manager holding the milk weights
+	 * @param outputDirectory directory to write the report files to
+	 */
+	public ReportRunner(MilkManager milkManager, File outputDirectory) {
+		this.milkManager = milkManager;
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * loads a directory of CSV files and writes the reports named by the
+	 * arguments
+	 * @param args CSV directory, output directory and the reports to write
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		File csvDirectory = new File(args[0]);
+		File outputDirectory = new File(args[1]);
+		List<String> reports = new ArrayList<>();
+		MilkManager milkManager = new MilkManager();
+		try {
+			for (String arg : Arrays.asList(args).subList(2, args.length)) {
+				if (arg.startsWith("@"))
+					reports.addAll(readReports(new File(arg.substring(1))));
+				else
+					reports.add(arg);
+			}
+
+			List<File> files = listCsvFiles(csvDirectory);
+			long start = System.nanoTime();
+			if (MilkManager.preferMapped(files))
+				milkManager.constructMapMapped(files);
+			else
+				milkManager.constructMap(files, true);
+			System.err.println("loaded " + files.size() + " files in " + (System.nanoTime() - start) / 1000000
+					+ " ms");
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		} catch (ParseException e) {
+			System.err.println("invalid row at offset " + e.getErrorOffset() + ": " + e.getMessage());
+			System.exit(1);
+		}
+
+		if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+			System.err.println("cannot create " + outputDirectory);
+			System.exit(1);
+		}
+
+		ReportRunner runner = new ReportRunner(milkManager, outputDirectory);
+		int failed = 0;
+		long start = System.nanoTime();
+		for (String report : reports) {
+			try {
+				File file = runner.run(report);
+				System.out.println(file);
+			} catch (IllegalArgumentException | FarmNotFoundException | InvalidDateException | IOException e) {
+				System.err.println(report + ": " + (e.getMessage() == null ? e.getClass().getSimpleName()
+						: e.getMessage()));
+				failed++;
+			}
+		}
+		System.err.println("wrote " + (reports.size() - failed) + " of " + reports.size() + " reports in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		System.exit(failed == 0 ? 0 : 2);
+	}
+
+	/**
+	 * lists the CSV files of a directory in name order
+	 * @param directory directory holding the CSV files
+	 * @return the CSV files
+	 * @throws IOException if the directory cannot be read
+	 */
+	private static List<File> listCsvFiles(File directory) throws IOException {
+		File[] files = directory.listFiles(file -> file.isFile() && file.getName().toLowerCase().endsWith(".csv"));
+		if (files == null)
+			throw new IOException("cannot read " + directory);
+		Arrays.sort(files);
+		return Arrays.asList(files);
+	}
+
+	/**
+	 * reads the reports of a parameter file, one per line
+	 * @param file file of reports
+	 * @return the reports in file order
+	 * @throws IOException if reading the file has an error
+	 */
+	private static List<String> readReports(File file) throws IOException {
+		List<String> reports = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					reports.add(line);
+			}
+		}
+		return reports;
+	}
+
+	/**
+	 * computes one report and writes it to the output directory
+	 * @param report report and its parameters, separated by commas
+	 * @return the written report file
+	 * @throws IllegalArgumentException if the report is not recognized
+	 * @throws FarmNotFoundException if the farm of a farm report has no readings
+	 * @throws InvalidDateException if a year, month or date is not valid
+	 * @throws IOException if writing the file has an error
+	 */
+	public File run(String report) throws FarmNotFoundException, InvalidDateException, IOException {
+		String[] fields = report.split(",");
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = fields[i].trim();
+
+		switch (fields[0].toLowerCase()) {
+		case "farm":
+			checkFields(fields, 3);
+			return writeFarmReport(milkManager.farmReport(fields[1], parseYear(fields[2])), fields[1], fields[2]);
+		case "annual":
+			checkFields(fields, 2);
+			return writeFarmMap(milkManager.annualReport(parseYear(fields[1])),
+					fields[1] + "_Annual_Report.txt", "Year: " + fields[1]);
+		case "monthly":
+			checkFields(fields, 3);
+			MilkManager.parseMonth(fields[1]);
+			return writeFarmMap(milkManager.monthlyReport(fields[1], parseYear(fields[2])),
+					fields[1] + "-" + fields[2] + "_Monthly_Report.txt", fields[1] + "-" + fields[2]);
+		case "range":
+			checkFields(fields, 3);
+			if (new MilkDate(fields[1]).compareTo(new MilkDate(fields[2])) > 0)
+				throw new InvalidDateException();
+			return writeFarmMap(milkManager.dateRangeReport(fields[1], fields[2]),
+					fields[1] + " - " + fields[2] + "Date_Range_Report.txt", fields[1] + "-" + fields[2]);
+		default:
+			throw new IllegalArgumentException("unknown report " + fields[0]);
+		}
+	}
+
+	private static void checkFields(String[] fields, int count) {
+		if (fields.length != count)
+			throw new IllegalArgumentException("expected " + (count - 1) + " parameters for " + fields[0]);
+	}
+
+	private static String parseYear(String year) throws InvalidDateException {
+		try {
+			Integer.parseInt(year);
+		} catch (NumberFormatException e) {
+			throw new InvalidDateException();
+		}
+		return year;
+	}
+
+	/**
+	 * writes the monthly weights of a farm report
+	 * @param farmReport weight and percent of every month, by month index
+	 * @param farmID farm of the report
+	 * @param year year of the report
+	 * @return the written report file
+	 * @throws IOException if writing the file has an error
+	 */
+	private File writeFarmReport(Map<Integer, WeightPercentPair> farmReport, String farmID, String year)
+			throws IOException {
+		File file = new File(outputDirectory, farmID + " - " + year + "Farm_Report.txt");
+		try (Writer writer = new FileWriter(file)) {
+			writer.write("Year: " + year + "\n");
+			for (int month = 0; month < MONTHS.length; month++) {
+				WeightPercentPair pair = farmReport.get(month);
+				writer.write(MONTHS[month] + ": " + pair.getMilkWeight() + " lbs," + " ("
+						+ df.format(pair.getPercent() * 100) + "%)\n");
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * writes the weights of an annual, monthly or date range report, sorted by
+	 * farm ID
+	 * @param report weight and percent of every farm
+	 * @param name name of the report file
+	 * @param title first line of the report
+	 * @return the written report file
+	 * @throws IOException if writing the file has an error
+	 */
+	private File writeFarmMap(Map<String, WeightPercentPair> report, String name, String title) throws IOException {
+		File file = new File(outputDirectory, name);
+		try (Writer writer = new FileWriter(file)) {
+			writer.write(title + "\n");
+			for (Map.Entry<String, WeightPercentPair> entry : new TreeMap<>(report).entrySet()) {
+				WeightPercentPair pair = entry.getValue();
+				writer.write(entry.getKey() + ": " + pair.getMilkWeight() + " (" + df.format(pair.getPercent() * 100)
+						+ "%)\n");
+			}
+		}
+		return file;
+	}
+}
@@ -0,0 +1,77 @@
+package application;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import application.MilkManager.WeightPercentPair;
+import javafx.collections.FXCollections;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+
+/**
+ * Virtualized list of the farms of an annual, monthly or date range report. Only
+ * the rows that are visible get a cell, and the cells are reused while the list
+ * scrolls, so showing a report takes the same nodes and layout time for ten
+ * farms as for ten thousand. Every row shows the farm ID, its weight and, if
+ * percentages are displayed, its share as a progress bar and a percentage
+ */
+public class ReportView extends ListView<Map.Entry<String, WeightPercentPair>> {
+	private static final DecimalFormat df = new DecimalFormat("#.##");
+
+	/**
+	 * constructor for a view of a report, sorted by farm ID
+	 * @param report weight and percent of every farm
+	 * @param displayPercentages true to show the share of every farm
+	 */
+	public ReportView(Map<String, WeightPercentPair> report, boolean displayPercentages) {
+		List<Map.Entry<String, WeightPercentPair>> rows = new ArrayList<>(report.entrySet());
+		rows.sort(Map.Entry.comparingByKey());
+		setItems(FXCollections.observableList(rows));
+		setCellFactory(list -> new ReportCell(displayPercentages));
+		setStyle("-fx-background-color: transparent");
+	}
+
+	/**
+	 * Row of the report. The nodes are created once per cell and only their
+	 * contents change when the cell is reused for another farm
+	 */
+	private static class ReportCell extends ListCell<Map.Entry<String, WeightPercentPair>> {
+		private Label farmName = new Label();
+		private Label milkWeight = new Label();
+		private ProgressBar pb = new ProgressBar();
+		private Label percentage = new Label();
+		private VBox row = new VBox();
+
+		ReportCell(boolean displayPercentages) {
+			farmName.setUnderline(true);
+			HBox weightBox = new HBox(milkWeight);
+			if (displayPercentages)
+				weightBox.getChildren().addAll(pb, percentage);
+			row.getChildren().addAll(farmName, weightBox);
+
+			setStyle("-fx-background-color: transparent");
+		}
+
+		@Override
+		protected void updateItem(Map.Entry<String, WeightPercentPair> entry, boolean empty) {
+			super.updateItem(entry, empty);
+			if (empty || entry == null) {
+				setGraphic(null);
+				return;
+			}
+
+			double percent = entry.getValue().getPercent();
+			farmName.setText(entry.getKey());
+			milkWeight.setText(entry.getValue().getMilkWeight() + " lbs   ");
+			pb.setProgress(percent);
+			percentage.setText("  (" + df.format(percent * 100) + "%)");
+			setGraphic(row);
+		}
+	}
+}